@@ -0,0 +1,78 @@
+package com.rakuten.tech.mobile.crash;
+
+import android.content.Context;
+import com.rakuten.tech.mobile.crash.processors.CrashReportProcessor;
+import com.rakuten.tech.mobile.crash.tasks.CrashReportTask;
+import com.rakuten.tech.mobile.crash.tasks.CrashReportTask.TaskType;
+import com.rakuten.tech.mobile.crash.tasks.ForegroundTask;
+import com.rakuten.tech.mobile.crash.tasks.NewInstallTask;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.EnumMap;
+import java.util.Map;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Cost of the {@link TaskWorker} dispatch path around a processor: lookup, metrics, journal checkpoint and
+ * recycling of pooled tasks. Processors do nothing but consume the task.
+ */
+@State(Scope.Thread)
+public class TaskDispatchBenchmark {
+
+  @Param({"false", "true"})
+  public boolean journal;
+
+  private final CrashReportTask installTask = new NewInstallTask();
+  private TaskDispatcher dispatcher;
+  private File directory;
+
+  @Setup
+  public void setUp(final Blackhole blackhole) throws IOException {
+    CrashReportProcessor processor = new CrashReportProcessor() {
+      @Override
+      public void processTask(Context context, CrashReportTask task) {
+        blackhole.consume(task);
+      }
+    };
+
+    Map<TaskType, CrashReportProcessor> processors = new EnumMap<>(TaskType.class);
+    for (TaskType type : TaskType.values()) {
+      processors.put(type, processor);
+    }
+
+    CrashReportTaskQueue queue = new CrashReportTaskQueue();
+    if (journal) {
+      directory = Files.createTempDirectory("journal").toFile();
+      queue.setJournal(TaskJournal.open(directory));
+    }
+    dispatcher = new TaskDispatcher(processors, queue);
+  }
+
+  @TearDown
+  public void tearDown() {
+    if (directory != null) {
+      new File(directory, CrashReportConstants.TASK_JOURNAL_FILE).delete();
+      directory.delete();
+    }
+  }
+
+  @Benchmark
+  public void dispatch() {
+    dispatcher.dispatch(null, installTask);
+  }
+
+  /**
+   * Dispatches a pooled lifecycle event, which is checkpointed in the journal when enabled and then recycled.
+   */
+  @Benchmark
+  public void dispatchPooled() {
+    dispatcher.dispatch(null, ForegroundTask.obtain(1L));
+  }
+}
@@ -0,0 +1,149 @@
+package com.rakuten.tech.mobile.crash;
+
+import com.rakuten.tech.mobile.crash.tasks.CrashReportTask;
+import com.rakuten.tech.mobile.crash.tasks.NewInstallTask;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Throughput and latency of {@link CrashReportTaskQueue} with 1 to 16 producer threads and the single consumer.
+ * Producers never block: tasks offered to a full queue are dropped and counted as rejected, so the taken count
+ * is the throughput the consumer sustains.
+ */
+@State(Scope.Group)
+public class TaskQueueBenchmark {
+
+  private final CrashReportTask task = new NewInstallTask();
+  private CrashReportTaskQueue queue;
+
+  @Setup(Level.Iteration)
+  public void setUp() {
+    queue = new CrashReportTaskQueue();
+    queue.setOverflowPolicy(QueueOverflowPolicy.DROP_NEWEST);
+  }
+
+  /**
+   * Operations completed by each thread, reported by JMH next to the benchmark score.
+   */
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.OPERATIONS)
+  public static class Counters {
+
+    public long offered;
+    public long rejected;
+    public long taken;
+    public long empty;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      offered = 0;
+      rejected = 0;
+      taken = 0;
+      empty = 0;
+    }
+  }
+
+  @Benchmark
+  @Group("producers1")
+  @GroupThreads(1)
+  public void offer1(Counters counters) {
+    offer(counters);
+  }
+
+  @Benchmark
+  @Group("producers1")
+  @GroupThreads(1)
+  public void poll1(Counters counters) {
+    poll(counters);
+  }
+
+  @Benchmark
+  @Group("producers2")
+  @GroupThreads(2)
+  public void offer2(Counters counters) {
+    offer(counters);
+  }
+
+  @Benchmark
+  @Group("producers2")
+  @GroupThreads(1)
+  public void poll2(Counters counters) {
+    poll(counters);
+  }
+
+  @Benchmark
+  @Group("producers4")
+  @GroupThreads(4)
+  public void offer4(Counters counters) {
+    offer(counters);
+  }
+
+  @Benchmark
+  @Group("producers4")
+  @GroupThreads(1)
+  public void poll4(Counters counters) {
+    poll(counters);
+  }
+
+  @Benchmark
+  @Group("producers8")
+  @GroupThreads(8)
+  public void offer8(Counters counters) {
+    offer(counters);
+  }
+
+  @Benchmark
+  @Group("producers8")
+  @GroupThreads(1)
+  public void poll8(Counters counters) {
+    poll(counters);
+  }
+
+  @Benchmark
+  @Group("producers16")
+  @GroupThreads(16)
+  public void offer16(Counters counters) {
+    offer(counters);
+  }
+
+  @Benchmark
+  @Group("producers16")
+  @GroupThreads(1)
+  public void poll16(Counters counters) {
+    poll(counters);
+  }
+
+  /**
+   * Round trip of a single task through an uncontended queue.
+   */
+  @Benchmark
+  @Group("roundTrip")
+  @GroupThreads(1)
+  public CrashReportTask offerThenPoll() {
+    queue.offer(task);
+    return queue.poll(0, TimeUnit.NANOSECONDS);
+  }
+
+  private void offer(Counters counters) {
+    if (queue.offer(task)) {
+      counters.offered++;
+    } else {
+      counters.rejected++;
+    }
+  }
+
+  private void poll(Counters counters) {
+    if (queue.poll(0, TimeUnit.NANOSECONDS) != null) {
+      counters.taken++;
+    } else {
+      counters.empty++;
+    }
+  }
+}
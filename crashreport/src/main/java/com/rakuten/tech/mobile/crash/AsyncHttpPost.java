@@ -2,30 +2,90 @@ package com.rakuten.tech.mobile.crash;
 
 import static com.rakuten.tech.mobile.crash.CrashReportConstants.HEADER_SUBSCRIPTION_KEY;
 
-import android.os.AsyncTask;
 import android.support.annotation.Nullable;
+import android.util.JsonWriter;
 import android.util.Log;
-import com.rakuten.tech.mobile.crash.utils.CommonUtil;
 import com.rakuten.tech.mobile.crash.utils.DeviceInfoUtil;
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
-import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLConnection;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import org.json.JSONArray;
 import org.json.JSONObject;
 
 /**
- * Performs HTTP POST requests to the Crash Report server.
+ * Performs HTTP POST requests to the Crash Report server through the installed {@link Transport}.
+ * Calling it blocks, use {@link CrashReportHttpClient} to run it asynchronously.
  */
-public class AsyncHttpPost extends AsyncTask<Void, Void, Integer> {
+public class AsyncHttpPost implements Callable<Integer> {
   private final static String TAG = "AsyncHttpPost";
+  private static final int DEFAULT_TIMEOUT_MILLIS = 30000;
+  // Responses are small JSON documents, larger ones are not read.
+  private static final int MAX_RESPONSE_SIZE = 64 * 1024;
   private final CrashServerURL url;
   private final JSONObject data;
+  private final String streamedKey;
+  private final RecordSource streamedRecords;
   private String responseBody;
+  private long retryAfterMillis = -1;
+  private int timeoutMillis = DEFAULT_TIMEOUT_MILLIS;
 
   public AsyncHttpPost(CrashServerURL url, JSONObject data) {
+    this(url, data, null, null);
+  }
+
+  /**
+   * Creates a request whose body holds the given data along with an array of records, which are read from their
+   * source while the body is written instead of being held in memory.
+   *
+   * @param streamedKey Key of the array of records in the body.
+   */
+  public AsyncHttpPost(CrashServerURL url, JSONObject data, @Nullable String streamedKey,
+      @Nullable RecordSource streamedRecords) {
     this.url = url;
     this.data = data;
+    this.streamedKey = streamedKey;
+    this.streamedRecords = streamedRecords;
+  }
+
+  /**
+   * Source of records streamed into a request body.
+   */
+  public interface RecordSource {
+
+    /**
+     * Opens a new reader of the records, once for every attempt to send the request.
+     */
+    RecordReader open() throws IOException;
+  }
+
+  /**
+   * Reads records one at a time.
+   */
+  public interface RecordReader extends Closeable {
+
+    /**
+     * @return the next record, or null once all records were read.
+     */
+    @Nullable
+    JSONObject next() throws IOException;
+  }
+
+  /**
+   * Sets the connect and read timeouts of the request, 30 seconds by default.
+   */
+  public void setTimeout(int millis) {
+    timeoutMillis = millis;
   }
 
   /**
@@ -46,36 +106,33 @@ public class AsyncHttpPost extends AsyncTask<Void, Void, Integer> {
      * Start a connection with a crash server.
      */
     URLConnection openConnection() throws IOException {
-      return crashServerURL.openConnection();
+      return ConnectionManager.getInstance().open(crashServerURL);
+    }
+
+    URL getURL() {
+      return crashServerURL;
     }
   }
 
   /**
    * Executes a post request to the Crash Report server containing a JSON body with device and/or crash data.
+   *
+   * @return status code of the response.
    */
   @Override
-  protected Integer doInBackground(Void... Param) {
+  public Integer call() {
     // Default status: unable to connect to server.
     int statusCode = 503;
+    responseBody = null;
+    retryAfterMillis = -1;
 
     try {
-      HttpURLConnection client = (HttpURLConnection) url.openConnection();
-      client.setRequestProperty("Content-Type", "application/json; charset=utf-8");
-      client.setRequestProperty(HEADER_SUBSCRIPTION_KEY,
-          DeviceInfoUtil.getInstance().getApiKey());
-      client.setDoOutput(true);
-      client.setDoInput(true);
-      client.setRequestMethod("POST");
-      client.connect();
-
-      OutputStreamWriter outputPost = new OutputStreamWriter(client.getOutputStream());
-      outputPost.write(data.toString());
-      outputPost.flush();
-      outputPost.close();
-      statusCode = client.getResponseCode();
-
-      responseBody = CommonUtil.INSTANCE.readInputStreamToString(client.getInputStream());
-      client.disconnect();
+      Transport.Response response = CrashReportHttpClient.getInstance().getTransport().post(createRequest());
+      statusCode = response.getStatusCode();
+      if (statusCode < 400) {
+        responseBody = response.getBody();
+      }
+      retryAfterMillis = parseRetryAfter(response.getHeader(CrashReportConstants.HEADER_RETRY_AFTER));
     } catch (IOException e) {
       Log.e(TAG, "Failed to send JSON data via POST request to server", e);
     }
@@ -83,6 +140,155 @@ public class AsyncHttpPost extends AsyncTask<Void, Void, Integer> {
     return statusCode;
   }
 
+  /**
+   * Creates a transport request writing the data as CBOR if the server accepts it, JSON otherwise.
+   */
+  private Transport.Request createRequest() {
+    CrashReportHttpClient httpClient = CrashReportHttpClient.getInstance();
+    final boolean cbor = httpClient.isCborEnabled();
+
+    Map<String, String> headers = new LinkedHashMap<>();
+    headers.put("Content-Type", cbor ? "application/cbor" : "application/json; charset=utf-8");
+    headers.put(HEADER_SUBSCRIPTION_KEY, DeviceInfoUtil.getInstance().getApiKey());
+
+    return new Transport.Request(url, headers, timeoutMillis, httpClient.getCompressionMinSize(),
+        MAX_RESPONSE_SIZE) {
+      @Override
+      public void writeBody(OutputStream stream) throws IOException {
+        if (cbor) {
+          writeCbor(new CborWriter(stream));
+        } else {
+          JsonWriter writer = new JsonWriter(new OutputStreamWriter(stream, "UTF-8"));
+          writeJson(writer);
+          writer.flush();
+        }
+      }
+    };
+  }
+
+  private void writeJson(JsonWriter writer) throws IOException {
+    if (streamedRecords == null) {
+      writeJson(writer, data);
+      return;
+    }
+
+    writer.beginObject();
+    Iterator<String> keys = data.keys();
+    while (keys.hasNext()) {
+      String key = keys.next();
+      writer.name(key);
+      writeJson(writer, data.opt(key));
+    }
+
+    writer.name(streamedKey);
+    writer.beginArray();
+    RecordReader reader = streamedRecords.open();
+    try {
+      JSONObject record;
+      while ((record = reader.next()) != null) {
+        writeJson(writer, record);
+      }
+    } finally {
+      reader.close();
+    }
+    writer.endArray();
+    writer.endObject();
+  }
+
+  private void writeCbor(CborWriter writer) throws IOException {
+    if (streamedRecords == null) {
+      writer.write(data);
+      return;
+    }
+
+    writer.writeMapHeader(data.length() + 1);
+    Iterator<String> keys = data.keys();
+    while (keys.hasNext()) {
+      String key = keys.next();
+      writer.writeText(key);
+      writer.write(data.opt(key));
+    }
+
+    // The number of records is unknown until they are read.
+    writer.writeText(streamedKey);
+    writer.beginIndefiniteArray();
+    RecordReader reader = streamedRecords.open();
+    try {
+      JSONObject record;
+      while ((record = reader.next()) != null) {
+        writer.write(record);
+      }
+    } finally {
+      reader.close();
+    }
+    writer.endIndefinite();
+  }
+
+  /**
+   * Reads a {@code Retry-After} header holding either a number of seconds or an HTTP date.
+   *
+   * @return delay in milliseconds, or -1 if there is no valid header.
+   */
+  private static long parseRetryAfter(@Nullable String retryAfter) {
+    if (retryAfter == null) {
+      return -1;
+    }
+
+    try {
+      return Math.max(0, Long.parseLong(retryAfter.trim()) * 1000);
+    } catch (NumberFormatException e) {
+      // Not a number of seconds, may be a date.
+    }
+
+    try {
+      Date date = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US).parse(retryAfter);
+      return Math.max(0, date.getTime() - System.currentTimeMillis());
+    } catch (ParseException e) {
+      Log.d(TAG, "Ignoring invalid Retry-After header: " + retryAfter);
+    }
+
+    return -1;
+  }
+
+  /**
+   * Writes a JSON value, walking objects and arrays instead of building their string representation.
+   */
+  private static void writeJson(JsonWriter writer, @Nullable Object value) throws IOException {
+    if (value instanceof JSONObject) {
+      JSONObject object = (JSONObject) value;
+      writer.beginObject();
+      Iterator<String> keys = object.keys();
+      while (keys.hasNext()) {
+        String key = keys.next();
+        writer.name(key);
+        writeJson(writer, object.opt(key));
+      }
+      writer.endObject();
+    } else if (value instanceof JSONArray) {
+      JSONArray array = (JSONArray) value;
+      writer.beginArray();
+      for (int i = 0; i < array.length(); i++) {
+        writeJson(writer, array.opt(i));
+      }
+      writer.endArray();
+    } else if (value == null || value == JSONObject.NULL) {
+      writer.nullValue();
+    } else if (value instanceof Boolean) {
+      writer.value((Boolean) value);
+    } else if (value instanceof Number) {
+      writer.value((Number) value);
+    } else {
+      writer.value(value.toString());
+    }
+  }
+
+  /**
+   * @return delay requested by the server before sending the request again, or -1 if none.
+   */
+  public long getRetryAfterMillis() {
+    return retryAfterMillis;
+  }
+
   @Nullable
   public String getServerMessage() {
     return responseBody;
@@ -0,0 +1,140 @@
+package com.rakuten.tech.mobile.crash;
+
+import android.support.annotation.Nullable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Writes JSON values as CBOR (RFC 7049), a binary encoding of the same data model. Numbers are written as binary
+ * integers or doubles instead of text, and strings, arrays and objects are prefixed with their length instead of
+ * being delimited, which makes bodies smaller and cheaper to write than JSON.
+ */
+class CborWriter {
+
+  private static final int MAJOR_UNSIGNED = 0;
+  private static final int MAJOR_NEGATIVE = 1;
+  private static final int MAJOR_TEXT = 3;
+  private static final int MAJOR_ARRAY = 4;
+  private static final int MAJOR_MAP = 5;
+  private static final int FALSE = 0xf4;
+  private static final int TRUE = 0xf5;
+  private static final int NULL = 0xf6;
+  private static final int DOUBLE = 0xfb;
+  private static final int INDEFINITE_ARRAY = 0x9f;
+  private static final int BREAK = 0xff;
+  private final OutputStream stream;
+  private final byte[] scratch = new byte[9];
+
+  CborWriter(OutputStream stream) {
+    this.stream = stream;
+  }
+
+  /**
+   * Writes a JSON value, walking objects and arrays instead of building their string representation.
+   * Values of other types are written as their string representation.
+   */
+  void write(@Nullable Object value) throws IOException {
+    if (value == null || value == JSONObject.NULL) {
+      stream.write(NULL);
+    } else if (value instanceof JSONObject) {
+      JSONObject object = (JSONObject) value;
+      writeMapHeader(object.length());
+      Iterator<String> keys = object.keys();
+      while (keys.hasNext()) {
+        String key = keys.next();
+        writeText(key);
+        write(object.opt(key));
+      }
+    } else if (value instanceof JSONArray) {
+      JSONArray array = (JSONArray) value;
+      writeHeader(MAJOR_ARRAY, array.length());
+      for (int i = 0; i < array.length(); i++) {
+        write(array.opt(i));
+      }
+    } else if (value instanceof Boolean) {
+      stream.write((Boolean) value ? TRUE : FALSE);
+    } else if (value instanceof Long || value instanceof Integer
+        || value instanceof Short || value instanceof Byte) {
+      writeInteger(((Number) value).longValue());
+    } else if (value instanceof Number) {
+      writeDouble(((Number) value).doubleValue());
+    } else {
+      writeText(value.toString());
+    }
+  }
+
+  /**
+   * Starts a map of the given number of entries, each to be written as a text key followed by a value.
+   */
+  void writeMapHeader(int size) throws IOException {
+    writeHeader(MAJOR_MAP, size);
+  }
+
+  /**
+   * Starts an array of values whose number is not known up front, ended by {@link #endIndefinite}.
+   */
+  void beginIndefiniteArray() throws IOException {
+    stream.write(INDEFINITE_ARRAY);
+  }
+
+  void endIndefinite() throws IOException {
+    stream.write(BREAK);
+  }
+
+  private void writeInteger(long value) throws IOException {
+    if (value >= 0) {
+      writeHeader(MAJOR_UNSIGNED, value);
+    } else {
+      // Negative integers are encoded as -1 - n.
+      writeHeader(MAJOR_NEGATIVE, -1 - value);
+    }
+  }
+
+  private void writeDouble(double value) throws IOException {
+    long bits = Double.doubleToLongBits(value);
+    scratch[0] = (byte) DOUBLE;
+    for (int i = 0; i < 8; i++) {
+      scratch[8 - i] = (byte) (bits >>> (8 * i));
+    }
+    stream.write(scratch, 0, 9);
+  }
+
+  void writeText(String text) throws IOException {
+    byte[] bytes = text.getBytes("UTF-8");
+    writeHeader(MAJOR_TEXT, bytes.length);
+    stream.write(bytes);
+  }
+
+  /**
+   * Writes the major type along with a length or unsigned value, in as few bytes as possible.
+   */
+  private void writeHeader(int majorType, long value) throws IOException {
+    int type = majorType << 5;
+    int length;
+
+    if (value < 24) {
+      scratch[0] = (byte) (type | value);
+      length = 0;
+    } else if (value <= 0xff) {
+      scratch[0] = (byte) (type | 24);
+      length = 1;
+    } else if (value <= 0xffff) {
+      scratch[0] = (byte) (type | 25);
+      length = 2;
+    } else if (value <= 0xffffffffL) {
+      scratch[0] = (byte) (type | 26);
+      length = 4;
+    } else {
+      scratch[0] = (byte) (type | 27);
+      length = 8;
+    }
+
+    for (int i = 0; i < length; i++) {
+      scratch[length - i] = (byte) (value >>> (8 * i));
+    }
+    stream.write(scratch, 0, length + 1);
+  }
+}
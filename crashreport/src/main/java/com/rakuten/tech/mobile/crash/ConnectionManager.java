@@ -0,0 +1,143 @@
+package com.rakuten.tech.mobile.crash;
+
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+import android.util.Log;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Opens connections to the Crash Report servers and hands them back to the platform connection pool once done,
+ * so requests to the config, install and sessions hosts reuse kept alive connections instead of paying a new
+ * TCP and TLS handshake each time.
+ *
+ * A connection only returns to the pool when its response was fully read and it was not disconnected. The pool
+ * itself is not observable, so reuse is estimated by counting connections released to the pool per host that
+ * are still within the keep alive window when the next request to that host starts.
+ */
+class ConnectionManager {
+
+  private static final ConnectionManager INSTANCE = new ConnectionManager();
+  private final static String TAG = "ConnectionManager";
+  // How long the platform pool keeps idle connections alive.
+  private static final long KEEP_ALIVE_MILLIS = 5 * 60 * 1000;
+  private final Map<String, IdleConnections> idleByHost = new HashMap<>();
+  private final AtomicLong openedCount = new AtomicLong();
+  private final AtomicLong reusedCount = new AtomicLong();
+
+  @VisibleForTesting
+  ConnectionManager() {
+  }
+
+  static ConnectionManager getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Opens a connection, reusing an idle one to the same host if the platform pool holds any.
+   */
+  URLConnection open(URL url) throws IOException {
+    openedCount.incrementAndGet();
+    if (takeIdle(url.getAuthority(), System.currentTimeMillis())) {
+      reusedCount.incrementAndGet();
+    }
+    return url.openConnection();
+  }
+
+  /**
+   * Hands a connection back to the pool, or disconnects it if its response was not fully read.
+   *
+   * @param reusable whether the response was read to the end and closed.
+   */
+  void release(HttpURLConnection connection, boolean reusable) {
+    URL url = connection.getURL();
+
+    if (reusable && url != null) {
+      putIdle(url.getAuthority(), System.currentTimeMillis());
+    } else {
+      connection.disconnect();
+    }
+  }
+
+  /**
+   * Number of connections opened.
+   */
+  long getOpenedCount() {
+    return openedCount.get();
+  }
+
+  /**
+   * Estimated number of opened connections which reused a pooled connection.
+   */
+  long getReusedCount() {
+    return reusedCount.get();
+  }
+
+  /**
+   * Reads the remainder of a response and closes it.
+   *
+   * @param response body or error stream of a response, null if there is none.
+   * @return false if the response could not be read to the end.
+   */
+  static boolean drain(@Nullable InputStream response) {
+    if (response == null) {
+      return true;
+    }
+
+    byte[] skipped = new byte[1024];
+    try {
+      while (response.read(skipped) != -1) {
+        // Discards unread response content.
+      }
+      return true;
+    } catch (IOException e) {
+      Log.d(TAG, "Error draining response, connection will not be reused.");
+    } finally {
+      try {
+        response.close();
+      } catch (IOException e) {
+        Log.d(TAG, "Error closing response");
+      }
+    }
+
+    return false;
+  }
+
+  private synchronized boolean takeIdle(String host, long now) {
+    IdleConnections idle = idleByHost.get(host);
+    if (idle == null || idle.count == 0) {
+      return false;
+    }
+
+    if (now - idle.lastReleaseMillis > KEEP_ALIVE_MILLIS) {
+      // Evicted by the pool in the meantime.
+      idle.count = 0;
+      return false;
+    }
+
+    idle.count--;
+    return true;
+  }
+
+  private synchronized void putIdle(String host, long now) {
+    IdleConnections idle = idleByHost.get(host);
+    if (idle == null) {
+      idle = new IdleConnections();
+      idleByHost.put(host, idle);
+    }
+    idle.count++;
+    idle.lastReleaseMillis = now;
+  }
+
+  private static class IdleConnections {
+
+    private int count;
+    private long lastReleaseMillis;
+  }
+}
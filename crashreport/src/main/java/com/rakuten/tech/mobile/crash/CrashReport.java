@@ -3,13 +3,15 @@ package com.rakuten.tech.mobile.crash;
 import android.app.Activity;
 import android.app.Application;
 import android.content.Context;
-import android.content.Intent;
-import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.preference.PreferenceManager;
+import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.Log;
 import com.rakuten.tech.mobile.crash.exception.LogEntrySizeLimitExceededError;
+import com.rakuten.tech.mobile.crash.processors.BatchUploadProcessor;
 import com.rakuten.tech.mobile.crash.processors.ConfigProcessor.OnConfigSuccessCallback;
 import com.rakuten.tech.mobile.crash.processors.CustomKeyCache;
 import com.rakuten.tech.mobile.crash.processors.CustomLogger;
@@ -18,12 +20,15 @@ import com.rakuten.tech.mobile.crash.exception.KeyValuePairSizeExceededError;
 import com.rakuten.tech.mobile.crash.exception.MaximumCapacityReachedError;
 import com.rakuten.tech.mobile.crash.processors.SessionLifecycleProcessor;
 import com.rakuten.tech.mobile.crash.tasks.BackgroundTask;
+import com.rakuten.tech.mobile.crash.tasks.BatchUploadTask;
 import com.rakuten.tech.mobile.crash.tasks.CrashReportTask;
 import com.rakuten.tech.mobile.crash.tasks.FlushLifecyclesTask;
 import com.rakuten.tech.mobile.crash.tasks.ForegroundTask;
 import com.rakuten.tech.mobile.crash.tasks.NewInstallTask;
+import com.rakuten.tech.mobile.crash.tasks.RecoverCrashTask;
 import com.rakuten.tech.mobile.crash.tasks.GetConfigTask;
 import com.rakuten.tech.mobile.crash.utils.DeviceInfoUtil;
+import java.util.Map;
 
 /**
  * Reports monitor app events to Crash Report server.
@@ -33,9 +38,13 @@ public class CrashReport {
   private static final CrashReport INSTANCE = new CrashReport();
   private final static String TAG = "CrashReport";
   private static Boolean crashReportEnabled;
-  private boolean crashReportInitiated = false;
-  private String reportInstallsUrl;
-  private String reportSessionsUrl;
+  // Written by the config callback on an upload thread.
+  private volatile boolean crashReportInitiated = false;
+  private boolean crashHandlingPrepared = false;
+  // Set once the config server disabled the SDK, crashes are then left to the default handler.
+  private volatile boolean sdkDisabled = false;
+  private volatile String reportInstallsUrl;
+  private volatile String reportSessionsUrl;
 
   @Nullable
   public String getInstallsUrl() {
@@ -80,6 +89,40 @@ public class CrashReport {
     CustomKeyCache.getInstance().removeCustomKey(key);
   }
 
+  /**
+   * Sets how tasks are handled when the internal task queue is full. Defaults to
+   * {@link QueueOverflowPolicy#SPILL_TO_DISK}.
+   */
+  public void setQueueOverflowPolicy(@NonNull QueueOverflowPolicy policy) {
+    CrashReportTaskQueue.getInstance().setOverflowPolicy(policy);
+  }
+
+  /**
+   * Sets the transport sending crash reports to the Crash Report servers, such as one wrapping the HTTP client of
+   * the app. Defaults to {@link java.net.HttpURLConnection}.
+   *
+   * @param transport Transport to use, or null to restore the default one.
+   */
+  public void setTransport(@Nullable Transport transport) {
+    CrashReportHttpClient.getInstance().setTransport(transport);
+  }
+
+  /**
+   * Sets when cached crash-free sessions are flushed to the Crash Report servers. Thresholds sent by the config
+   * server take precedence. Defaults to {@link FlushPolicy#DEFAULT}.
+   */
+  public void setFlushPolicy(@NonNull FlushPolicy policy) {
+    SessionLifecycleProcessor.getInstance().setFlushPolicy(policy);
+  }
+
+  /**
+   * Sets when crash-free sessions are deferred until network and power conditions improve. Crashes are always sent
+   * right away. Defaults to {@link UploadPolicy#DEFAULT}.
+   */
+  public void setUploadPolicy(@NonNull UploadPolicy policy) {
+    SessionLifecycleProcessor.getInstance().setUploadPolicy(policy);
+  }
+
   /**
    * Returns an instance of Crash Report.
    */
@@ -93,6 +136,7 @@ public class CrashReport {
   void init(Context context) {
     try {
       if (context != null) {
+        prepareCrashHandling(context);
         initializeCrashReporting(context);
       }
     } catch (Exception e) {
@@ -103,15 +147,33 @@ public class CrashReport {
   private CrashReport() {
   }
 
+  /**
+   * Handles crashes from the first launch, whether or not the config server can be reached. Reserves room for
+   * crashes which cannot be fully reported, and has the last one stored by the crash reporting thread. Only runs
+   * once, as initialization is retried when the network becomes available.
+   */
+  private void prepareCrashHandling(Context context) {
+    if (crashHandlingPrepared) {
+      return;
+    }
+    crashHandlingPrepared = true;
+
+    // Start on a new thread for crash reporting.
+    runServiceThread(context);
+
+    if (SessionLifecycleProcessor.getInstance().reserveCrashSlot(context)) {
+      submitTask(new RecoverCrashTask());
+    }
+    // Set the app's exception handler to communicate with crash report servers.
+    setUncaughtExceptionHandler(context);
+  }
+
   private void initializeCrashReporting(Context context) throws Exception {
     if (!crashReportInitiated && NetworkStateReceiver.isNetworkAvailable(context)) {
-      // Start on a new thread for crash reporting.
-      runServiceThread(context);
-
       // Get Subscription ID.
       DeviceInfoUtil.getInstance().init(context);
 
-      queueTaskInBackground(new GetConfigTask(new OnConfigSuccessCallback() {
+      submitTask(new GetConfigTask(new OnConfigSuccessCallback() {
         @Override
         public void onSuccess(Context context,
             boolean isSdkEnabled,
@@ -124,12 +186,16 @@ public class CrashReport {
             reportInstallsUrl = installsUrl;
             reportSessionsUrl = sessionsUrl;
 
-            // Set the app's exception handler to communicate with crash report servers.
-            setUncaughtExceptionHandler(context);
+            // Restore the session of the previous process, now that it can be reported.
+            TaskWorker.getInstance().replayJournal();
+            // Flush deferred sessions once their maximum deferral expires.
+            scheduleDeferredFlushes();
             // Initial tasks to be done on application start.
             runTasks();
             // Record start and end sessions of app activity.
             monitorAppLifecycle(context);
+          } else {
+            sdkDisabled = true;
           }
 
           // Set a flag to prevent multiple processes of crash report.
@@ -156,14 +222,16 @@ public class CrashReport {
 
       @Override
       public void onActivityStarted(Activity activity) {
-        // Queues up a new foreground event task asynchronously.
-        queueTaskInBackground(new ForegroundTask(System.currentTimeMillis()));
+        SessionLifecycleProcessor.getInstance().setAppInFocus(true);
+        // Queues up a pooled foreground event task.
+        submitTask(ForegroundTask.obtain(System.currentTimeMillis()));
       }
 
       @Override
       public void onActivityPaused(Activity activity) {
-        // Queues up a new background event task asynchronously.
-        queueTaskInBackground(new BackgroundTask(System.currentTimeMillis()));
+        SessionLifecycleProcessor.getInstance().setAppInFocus(false);
+        // Queues up a pooled background event task.
+        submitTask(BackgroundTask.obtain(System.currentTimeMillis()));
       }
 
       @Override
@@ -185,33 +253,67 @@ public class CrashReport {
   }
 
   /**
-   * Queue crash reporting tasks asynchronously to ensure crash reporting does not affect the app performance on the main thread.
+   * Queue crash reporting tasks without blocking, so it is safe to call from the main thread.
    */
-  private void queueTaskInBackground(final CrashReportTask task) {
-    new AsyncTask<Void, Void, Void>() {
+  private void submitTask(CrashReportTask task) {
+    CrashReportTaskQueue.getInstance().offer(task);
+  }
 
+  /**
+   * Queues a flush of the cached lifecycles when asked by the session processor, which bounds the time crash-free
+   * sessions are deferred.
+   */
+  private void scheduleDeferredFlushes() {
+    SessionLifecycleProcessor.getInstance().setFlushScheduler(new SessionLifecycleProcessor.FlushScheduler() {
       @Override
-      protected Void doInBackground(Void... voids) {
-        CrashReportTaskQueue.getInstance().enqueue(task);
-        return null;
+      public void scheduleFlush(long delayMillis) {
+        new Handler(Looper.getMainLooper()).postDelayed(new Runnable() {
+          @Override
+          public void run() {
+            submitTask(new FlushLifecyclesTask());
+          }
+        }, delayMillis);
       }
-    }.execute();
+    });
   }
 
   /**
-   * Starts a new android service in the background that dedicates a new thread for crash reporting.
+   * Lets crash reporting tasks run on a dedicated thread, started on demand.
    */
   private void runServiceThread(Context context) {
-    context.startService(new Intent(context, TaskProcessor.class));
+    TaskWorker.getInstance().start(context);
+  }
+
+  /**
+   * Sets how long the crash reporting thread waits for new tasks before terminating. It is started again when
+   * needed. Defaults to 30 seconds, a timeout which is not positive is ignored.
+   */
+  public void setWorkerIdleTimeout(long millis) {
+    TaskWorker.getInstance().setIdleTimeout(millis);
+  }
+
+  /**
+   * Returns a snapshot of the crash reporting task pipeline metrics per task type, such as queue depth,
+   * time spent in queue and processing latency. Useful to detect when tasks pile up faster than they are processed.
+   */
+  @NonNull
+  public Map<CrashReportTask.TaskType, TaskTypeMetrics> getTaskMetrics() {
+    return CrashReportTaskQueue.getInstance().getMetrics();
   }
 
   /**
    * Queues a flush on any cached crash reporting lifecycles and report new app install on app boot up.
    */
   private void runTasks() {
-    queueTaskInBackground(new FlushLifecyclesTask());
-    queueTaskInBackground(new NewInstallTask());
-    queueTaskInBackground(new ForegroundTask(System.currentTimeMillis()));
+    if (BatchUploadProcessor.getInstance().isEnabled()) {
+      // Reports both in one request.
+      submitTask(new BatchUploadTask());
+    } else {
+      submitTask(new FlushLifecyclesTask());
+      submitTask(new NewInstallTask());
+    }
+    SessionLifecycleProcessor.getInstance().setAppInFocus(true);
+    submitTask(ForegroundTask.obtain(System.currentTimeMillis()));
   }
 
   private void setUncaughtExceptionHandler(final Context context) {
@@ -228,7 +330,9 @@ public class CrashReport {
            */
           @Override
           public void uncaughtException(Thread thread, Throwable ex) {
-            SessionLifecycleProcessor.getInstance().reportCrash(context, ex);
+            if (!sdkDisabled) {
+              SessionLifecycleProcessor.getInstance().reportCrash(context, ex);
+            }
 
             if (ex instanceof StackOverflowError) {
               try {
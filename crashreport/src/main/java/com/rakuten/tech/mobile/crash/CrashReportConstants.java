@@ -9,11 +9,18 @@ public class CrashReportConstants {
   public static final String FAILED_INIT = "FAILED_INIT";
   public static final String FLUSH_LIFECYCLES = "FLUSH_LIFECYCLES";
   public static final String NEW_INSTALL = "NEW_INSTALL";
+  public static final String DEFERRED_SINCE = "DEFERRED_SINCE";
 
   // Files located in the Android file system.
   public static final String CPUINFO_FILE = "/sys/devices/system/cpu/cpu0/cpufreq/cpuinfo_max_freq";
   public static final String MEMORYINFO_FILE = "/proc/meminfo";
+  // Written by previous versions, migrated to the lifecycle store.
   public static final String LIFECYCLE_FILE = "lifecycle.txt";
+  public static final String LIFECYCLE_LOG_FILE = "lifecycle.log";
+  public static final String LIFECYCLE_DIRECTORY = "lifecycles";
+  public static final String CRASH_SLOT_FILE = "crash.slot";
+  public static final String TASK_SPILL_FILE = "task_spill.bin";
+  public static final String TASK_JOURNAL_FILE = "task_journal.bin";
 
   // Request fields used to store android device related information.
   public static final String APP_ID = "app_id";
@@ -40,6 +47,7 @@ public class CrashReportConstants {
   public static final String ORIGIN_ERROR = "origin_error";
   public static final String PLATFORM = "platform";
   public static final String PROCESSOR = "processor";
+  public static final String REPORT_MILLIS = "report_millis";
   public static final String SDK_VERSION = "sdk_version";
   public static final String STACK_TRACE = "stack_trace";
   public static final String STATUS = "status";
@@ -51,8 +59,12 @@ public class CrashReportConstants {
 
   // Subscription ID Key which host app must also use the same name.
   public static final String SUBSCRIPTION_KEY = "com.rakuten.tech.mobile.relay.SubscriptionKey";
+  // Optional manifest meta-data enabling the task journal.
+  public static final String ENABLE_TASK_JOURNAL = "com.rakuten.tech.mobile.crash.EnableTaskJournal";
   // Header key in every request.
   public static final String HEADER_SUBSCRIPTION_KEY = "Ocp-Apim-Subscription-Key";
+  public static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
+  public static final String HEADER_RETRY_AFTER = "Retry-After";
 
   // Configuration server fields.
   public static final String DATA = "data";
@@ -61,7 +73,20 @@ public class CrashReportConstants {
   public static final String INSTALL = "install";
   public static final String OVERRIDE = "override";
   public static final String SESSIONS = "sessions";
+  public static final String BATCH = "batch";
+  public static final String STATUS_CODE = "status_code";
   public static final String STICKY = "sticky";
+  public static final String COMPRESSION = "compression";
+  public static final String COMPRESSION_MIN_SIZE = "compression_min_size";
+  public static final String GZIP = "gzip";
+  public static final String ENCODING = "encoding";
+  public static final String CBOR = "cbor";
+  public static final String FLUSH_MAX_RECORDS = "flush_max_records";
+  public static final String FLUSH_MAX_BYTES = "flush_max_bytes";
+  public static final String FLUSH_MAX_AGE_MILLIS = "flush_max_age_millis";
+
+  // Request bodies smaller than this, in bytes, are not compressed unless the server sets another size.
+  public static final int DEFAULT_COMPRESSION_MIN_SIZE = 1024;
 
   // System stats fields.
   public static final String DEVICE_MODEL= "device_model";
@@ -74,4 +99,12 @@ public class CrashReportConstants {
 
   // App Key Events.
   public static final String LOG = "log";
+
+  // Time in background, in milliseconds, after which a return to foreground starts a new session.
+  public static final long SESSION_GAP_MILLIS = 5000;
+
+  // Time, in milliseconds, the crashing thread may spend reporting a crash before the app is terminated.
+  public static final long CRASH_REPORT_BUDGET_MILLIS = 2000;
+  // Crashes are not sent with less time than this, in milliseconds, left of the budget.
+  public static final long MIN_CRASH_UPLOAD_MILLIS = 250;
 }
\ No newline at end of file
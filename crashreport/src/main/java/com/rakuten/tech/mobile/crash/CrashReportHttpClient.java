@@ -0,0 +1,221 @@
+package com.rakuten.tech.mobile.crash;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+import com.rakuten.tech.mobile.crash.tasks.TaskPriority;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Asynchronous HTTP client of the SDK. Requests run on SDK owned upload threads, bounded in number,
+ * and never on the app wide {@code AsyncTask} executors.
+ */
+public class CrashReportHttpClient {
+
+  private static final CrashReportHttpClient INSTANCE = new CrashReportHttpClient();
+  private final static String TAG = "CrashReportHttpClient";
+  private volatile int compressionMinSize = -1;
+  private volatile boolean cborEnabled = false;
+  private volatile Transport transport = HttpUrlConnectionTransport.INSTANCE;
+
+  private CrashReportHttpClient() {
+  }
+
+  public static CrashReportHttpClient getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Sets the size from which request bodies are gzip compressed, as negotiated with the config server.
+   *
+   * @param minSize size in bytes, or a negative value to send all bodies uncompressed.
+   */
+  public void setCompressionMinSize(int minSize) {
+    compressionMinSize = minSize;
+  }
+
+  /**
+   * @return size in bytes from which request bodies are gzip compressed, negative if compression is disabled.
+   */
+  public int getCompressionMinSize() {
+    return compressionMinSize;
+  }
+
+  /**
+   * Sets the transport sending the requests of the SDK.
+   *
+   * @param transport Transport to use, or null to use the default {@link java.net.HttpURLConnection} transport.
+   */
+  public void setTransport(@Nullable Transport transport) {
+    this.transport = transport != null ? transport : HttpUrlConnectionTransport.INSTANCE;
+  }
+
+  @NonNull
+  public Transport getTransport() {
+    return transport;
+  }
+
+  /**
+   * Sets whether request bodies are encoded as CBOR instead of JSON, as negotiated with the config server.
+   */
+  public void setCborEnabled(boolean enabled) {
+    cborEnabled = enabled;
+  }
+
+  /**
+   * @return whether request bodies are encoded as CBOR instead of JSON.
+   */
+  public boolean isCborEnabled() {
+    return cborEnabled;
+  }
+
+  /**
+   * @return estimated share of requests which reused a kept alive connection, between 0 and 1.
+   */
+  public double getConnectionReuseRate() {
+    long opened = ConnectionManager.getInstance().getOpenedCount();
+    return opened == 0 ? 0 : (double) ConnectionManager.getInstance().getReusedCount() / opened;
+  }
+
+  /**
+   * Sends a request once without blocking the calling thread.
+   *
+   * @param priority Requests of higher priority are sent first when several are pending.
+   * @param callback Invoked on an upload thread once the request completed.
+   * @return Future holding the status code of the response.
+   */
+  @NonNull
+  public Future<Integer> post(@NonNull TaskPriority priority, @NonNull AsyncHttpPost request,
+      @Nullable ResponseCallback callback) {
+    return post(priority, request, RetryPolicy.NONE, callback);
+  }
+
+  /**
+   * Sends a request without blocking the calling thread, sending it again while it fails and the retry policy
+   * allows it.
+   *
+   * @param priority Requests of higher priority are sent first when several are pending.
+   * @param callback Invoked on an upload thread once with the response of the last attempt.
+   * @return Future holding the status code of the response of the last attempt.
+   */
+  @NonNull
+  public Future<Integer> post(@NonNull final TaskPriority priority, @NonNull final AsyncHttpPost request,
+      @NonNull final RetryPolicy retryPolicy, @Nullable final ResponseCallback callback) {
+
+    final Response response = new Response();
+
+    UploadExecutor.getInstance().execute(priority, new Runnable() {
+      private int attempt = 0;
+
+      @Override
+      public void run() {
+        // Default status: unable to connect to server.
+        int statusCode = 503;
+        RuntimeException failure = null;
+        try {
+          statusCode = request.call();
+        } catch (RuntimeException e) {
+          // Thrown by a transport or the connection itself, handled like a failure to connect so the callback,
+          // which releases what the caller holds for the request, is still invoked.
+          Log.e(TAG, "Failed to send request to server.", e);
+          failure = e;
+        }
+        attempt++;
+
+        long delay = retryPolicy.nextDelayMillis(attempt, statusCode, request.getRetryAfterMillis());
+        if (delay >= 0) {
+          UploadExecutor.getInstance().executeLater(priority, this, delay);
+          return;
+        }
+
+        if (callback != null) {
+          try {
+            callback.onResponse(statusCode, request.getServerMessage());
+          } catch (RuntimeException e) {
+            // The future would otherwise swallow the exception silently.
+            Log.e(TAG, "Failed to handle response from server.", e);
+          }
+        }
+
+        if (failure != null) {
+          response.fail(failure);
+        } else {
+          response.complete(statusCode);
+        }
+      }
+    });
+
+    return response;
+  }
+
+  /**
+   * Future completed once by the last attempt of a request. A request cannot be cancelled.
+   */
+  private static class Response implements Future<Integer> {
+
+    private final CountDownLatch done = new CountDownLatch(1);
+    private volatile int statusCode;
+    private volatile Throwable failure;
+
+    void complete(int statusCode) {
+      this.statusCode = statusCode;
+      done.countDown();
+    }
+
+    void fail(Throwable throwable) {
+      failure = throwable;
+      done.countDown();
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      return false;
+    }
+
+    @Override
+    public boolean isCancelled() {
+      return false;
+    }
+
+    @Override
+    public boolean isDone() {
+      return done.getCount() == 0;
+    }
+
+    @Override
+    public Integer get() throws InterruptedException, ExecutionException {
+      done.await();
+      return result();
+    }
+
+    @Override
+    public Integer get(long timeout, @NonNull TimeUnit unit)
+        throws InterruptedException, ExecutionException, TimeoutException {
+      if (!done.await(timeout, unit)) {
+        throw new TimeoutException();
+      }
+      return result();
+    }
+
+    private Integer result() throws ExecutionException {
+      // Read after the latch was released, which publishes the fields written before it.
+      Throwable throwable = failure;
+      if (throwable != null) {
+        throw new ExecutionException(throwable);
+      }
+      return statusCode;
+    }
+  }
+
+  /**
+   * Callback interface to handle the response of a request.
+   */
+  public interface ResponseCallback {
+
+    void onResponse(int statusCode, @Nullable String responseBody);
+  }
+}
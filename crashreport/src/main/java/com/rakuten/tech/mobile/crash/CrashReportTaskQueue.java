@@ -1,20 +1,60 @@
 package com.rakuten.tech.mobile.crash;
 
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.support.annotation.VisibleForTesting;
-import android.util.Log;
+import com.rakuten.tech.mobile.crash.tasks.BackgroundTask;
 import com.rakuten.tech.mobile.crash.tasks.CrashReportTask;
-import java.util.LinkedList;
-import java.util.Queue;
+import com.rakuten.tech.mobile.crash.tasks.CrashReportTask.TaskType;
+import com.rakuten.tech.mobile.crash.tasks.ForegroundTask;
+import com.rakuten.tech.mobile.crash.tasks.TaskCodec;
+import com.rakuten.tech.mobile.crash.tasks.TaskPriority;
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Thread safe queue containing tasks that requires execution in FIFO order.
+ * Tasks are kept in one lane per {@link TaskPriority}, and a lane is only served once all higher priority lanes
+ * are empty. Any thread may enqueue, while only the {@link TaskWorker} thread dequeues.
+ *
+ * Offering a task never does I/O, as it is called from the main thread. Tasks to spill to disk are staged in
+ * memory, then written by the consumer thread to the spill file of their lane, so spilled tasks keep their priority.
  */
 class CrashReportTaskQueue {
 
   private static final CrashReportTaskQueue INSTANCE = new CrashReportTaskQueue();
-  private final static String TAG = "CrashReportTaskQueue";
-  private static final int MAX_SIZE = 50;
-  private static Queue<CrashReportTask> queue = new LinkedList<>();
+  private static final int CAPACITY = 64;
+  private static final int STAGING_CAPACITY = 256;
+  private static final int FULL_SPIN_LIMIT = 64;
+  private static final long FULL_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+  private final TaskRingBuffer<CrashReportTask>[] lanes = createLanes();
+  // Tasks waiting to be spilled by the consumer thread, in the order they were offered.
+  private final TaskRingBuffer<CrashReportTask> staging = new TaskRingBuffer<>(STAGING_CAPACITY);
+  // Number of staged tasks per TaskPriority ordinal.
+  private final AtomicIntegerArray stagedByLane = new AtomicIntegerArray(TaskPriority.values().length);
+  private final LifecycleCoalescer coalescer = new LifecycleCoalescer();
+  // Number of queued tasks per TaskType ordinal, used to coalesce repeated tasks.
+  private final AtomicIntegerArray queuedByType = new AtomicIntegerArray(TaskType.values().length);
+  private final AtomicLong droppedCount = new AtomicLong();
+  private final AtomicLong coalescedCount = new AtomicLong();
+  private final AtomicLong spilledCount = new AtomicLong();
+  private final TaskMetricsRecorder metrics = new TaskMetricsRecorder();
+  // Receives the stamp of tasks taken by the consumer thread, only accessed from that thread.
+  private final long[] takenStamp = new long[1];
+  private volatile QueueOverflowPolicy overflowPolicy = QueueOverflowPolicy.SPILL_TO_DISK;
+  // One spill file per lane, indexed by TaskPriority ordinal.
+  private volatile TaskSpillFile[] spillFiles;
+  private volatile TaskJournal journal;
+  // Consumer thread currently parked waiting for a task, null while it is running.
+  private volatile Thread waitingConsumer;
+  // Whether a consumer thread exists, parked or running.
+  private final AtomicBoolean consumerActive = new AtomicBoolean(false);
+  private volatile Runnable consumerLauncher;
 
   @VisibleForTesting
   CrashReportTaskQueue() {
@@ -24,39 +64,484 @@ class CrashReportTaskQueue {
     return INSTANCE;
   }
 
+  void setOverflowPolicy(@NonNull QueueOverflowPolicy policy) {
+    overflowPolicy = policy;
+  }
+
+  /**
+   * Sets the directory used by {@link QueueOverflowPolicy#SPILL_TO_DISK}.
+   */
+  void setSpillDirectory(File directory) {
+    if (spillFiles == null) {
+      TaskSpillFile[] files = new TaskSpillFile[TaskPriority.values().length];
+      for (TaskPriority priority : TaskPriority.values()) {
+        files[priority.ordinal()] = new TaskSpillFile(directory, priority);
+      }
+      spillFiles = files;
+    }
+  }
+
+  /**
+   * Journals queued tasks from now on. Tasks left in the journal by a previous process must have been replayed
+   * beforehand.
+   */
+  void setJournal(@NonNull TaskJournal taskJournal) {
+    if (journal == null) {
+      journal = taskJournal;
+    }
+  }
+
+  /**
+   * Marks a task as processed so it is not replayed by a later process.
+   */
+  void checkpoint(CrashReportTask task) {
+    TaskJournal taskJournal = journal;
+    if (taskJournal != null) {
+      taskJournal.checkpoint(task);
+    }
+  }
+
+  /**
+   * Sets how to start a consumer thread when a task is queued while none is active.
+   * Starts one right away if tasks are already pending.
+   */
+  void setConsumerLauncher(@Nullable Runnable launcher) {
+    consumerLauncher = launcher;
+    if (launcher != null && hasPending() && claimConsumer()) {
+      launcher.run();
+    }
+  }
+
+  /**
+   * Marks the calling thread as the active consumer.
+   *
+   * @return false if another consumer is already active.
+   */
+  boolean claimConsumer() {
+    return consumerActive.compareAndSet(false, true);
+  }
+
+  /**
+   * Lets the active consumer thread terminate. A consumer is launched again on the next enqueue.
+   *
+   * @return false if tasks arrived in the meantime and the caller must keep consuming.
+   */
+  boolean releaseConsumer() {
+    consumerActive.set(false);
+    // Checked after the release so a concurrent enqueue either sees no consumer or gets consumed here.
+    return !(hasPending() && claimConsumer());
+  }
+
   /**
    * Add a task into the queue ready to be sent to the crash reporting server.
+   * Backs off while the queue is full until the consumer makes room.
+   */
+  boolean enqueue(CrashReportTask task) {
+    if (!insert(task)) {
+      long blockedSince = System.nanoTime();
+      int attempts = 0;
+
+      while (!insert(task)) {
+        if (attempts++ < FULL_SPIN_LIMIT) {
+          Thread.yield();
+        } else {
+          LockSupport.parkNanos(this, FULL_BACKOFF_NANOS);
+        }
+      }
+      metrics.recordBlocked(task.getType(), System.nanoTime() - blockedSince);
+    }
+
+    signalConsumer();
+    return true;
+  }
+
+  /**
+   * Add a task into the queue without blocking, applying the overflow policy if the queue is full.
+   * A background event is held back for the session gap window and dropped together with a foreground event
+   * arriving within it, as such pair does not change the session. Only the session boundaries are delayed, the focus
+   * state is updated by the caller when the event happens.
+   *
+   * @return false if the task was dropped.
+   */
+  boolean offer(CrashReportTask task) {
+    switch (task.getType()) {
+      case BACKGROUND:
+        // Journaled while held, as it may be taken by the consumer straight from the coalescer.
+        journal(task);
+        BackgroundTask previous = coalescer.hold((BackgroundTask) task);
+        // Lets a parked consumer re-arm its wait for the held event to expire.
+        signalConsumer();
+        return previous == null || submit(previous, true);
+      case FOREGROUND:
+        BackgroundTask pending = coalescer.release();
+        if (pending != null) {
+          if (LifecycleCoalescer.continuesSession(pending, (ForegroundTask) task)) {
+            coalescedCount.addAndGet(2);
+            metrics.recordCoalesced(TaskType.BACKGROUND);
+            metrics.recordCoalesced(TaskType.FOREGROUND);
+            checkpoint(pending);
+            pending.recycle();
+            ((ForegroundTask) task).recycle();
+            return true;
+          }
+          submit(pending, true);
+        }
+        break;
+      default:
+        break;
+    }
+
+    return submit(task, false);
+  }
+
+  /**
+   * Remove a task in queue that has been sent over to the crash reporting server.
+   * Parks the calling thread until a task is available.
    */
-  synchronized boolean enqueue(CrashReportTask task) {
-    try {
-      while (queue.size() == MAX_SIZE) {
-        wait();
+  CrashReportTask dequeue() {
+    CrashReportTask task = null;
+    while (task == null) {
+      task = poll(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+    return task;
+  }
+
+  /**
+   * Remove a task in queue, parking the calling thread up to the given timeout until one is available.
+   *
+   * @return null if no task became available in time.
+   */
+  @Nullable
+  CrashReportTask poll(long timeout, TimeUnit unit) {
+    long deadline = System.nanoTime() + Math.min(unit.toNanos(timeout), Long.MAX_VALUE / 2);
+
+    while (true) {
+      CrashReportTask task = take();
+      if (task != null) {
+        return task;
       }
-      queue.add(task);
-      notifyAll();
+
+      // Publish the waiter before checking again so a concurrent enqueue cannot be missed.
+      waitingConsumer = Thread.currentThread();
+      task = take();
+      if (task != null) {
+        waitingConsumer = null;
+        return task;
+      }
+
+      long remaining = deadline - System.nanoTime();
+      if (remaining <= 0) {
+        waitingConsumer = null;
+        return null;
+      }
+
+      // Wakes up in time to process a held background event once it can no longer be coalesced.
+      long expiry = coalescer.millisUntilExpiry(System.currentTimeMillis());
+      if (expiry >= 0) {
+        remaining = Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(expiry));
+      }
+      LockSupport.parkNanos(this, remaining);
+      waitingConsumer = null;
+    }
+  }
+
+  int size() {
+    int size = 0;
+    for (TaskRingBuffer<CrashReportTask> lane : lanes) {
+      size += lane.size();
+    }
+    return size;
+  }
+
+  long getDroppedCount() {
+    return droppedCount.get();
+  }
+
+  long getCoalescedCount() {
+    return coalescedCount.get();
+  }
+
+  long getSpilledCount() {
+    return spilledCount.get();
+  }
+
+  /**
+   * Records how long the processor spent on a task.
+   */
+  void recordProcessing(CrashReportTask task, long nanos) {
+    metrics.recordProcessing(task.getType(), nanos);
+  }
+
+  /**
+   * @return a snapshot of the metrics of every task type.
+   */
+  Map<TaskType, TaskTypeMetrics> getMetrics() {
+    return metrics.snapshot(queuedByType);
+  }
+
+  /**
+   * @return true if a task is waiting in memory, on disk or in the coalescer.
+   */
+  private boolean hasPending() {
+    if (size() > 0 || !staging.isEmpty() || coalescer.millisUntilExpiry(System.currentTimeMillis()) >= 0) {
       return true;
-    } catch (Exception e) {
-      Log.e(TAG, "Failed to enqueue task.", e);
     }
 
+    TaskSpillFile[] spills = spillFiles;
+    if (spills != null) {
+      for (TaskSpillFile spill : spills) {
+        if (spill.hasPending()) {
+          return true;
+        }
+      }
+    }
     return false;
   }
 
   /**
-   * Remove a task in queue that has been sent over to the crash reporting server.
+   * @param journaled whether the task was journaled already, such as a held background event.
    */
-  synchronized CrashReportTask dequeue() {
-    try {
-      while (queue.isEmpty()) {
-        wait();
+  private boolean submit(CrashReportTask task, boolean journaled) {
+    if (!journaled) {
+      journal(task);
+    }
+
+    TaskType type = task.getType();
+    // Keeps FIFO order by spilling behind tasks of the same lane that are already staged or on disk.
+    if (isSpilling(task)) {
+      long overflowSince = System.nanoTime();
+      if (stage(task)) {
+        metrics.recordBlocked(type, System.nanoTime() - overflowSince);
+        return true;
       }
-      CrashReportTask task = queue.remove();
-      notifyAll();
-      return task;
-    } catch (Exception e) {
-      Log.e(TAG, "Failed to dequeue task.", e);
     }
 
+    if (insert(task)) {
+      signalConsumer();
+      return true;
+    }
+
+    // Time spent by the offering thread on a full queue.
+    long overflowSince = System.nanoTime();
+    boolean accepted = overflow(task);
+    metrics.recordBlocked(type, System.nanoTime() - overflowSince);
+    return accepted;
+  }
+
+  private void journal(CrashReportTask task) {
+    TaskJournal taskJournal = journal;
+    if (taskJournal != null) {
+      taskJournal.append(task);
+    }
+  }
+
+  private boolean insert(CrashReportTask task) {
+    int type = task.getType().ordinal();
+
+    int depth = queuedByType.incrementAndGet(type);
+    if (laneOf(task).offer(task, System.nanoTime())) {
+      metrics.recordDepth(task.getType(), depth);
+      return true;
+    }
+
+    queuedByType.decrementAndGet(type);
+    return false;
+  }
+
+  /**
+   * Removes the oldest task of the highest priority lane holding any, reading a lane's spill file once its
+   * in-memory tasks are drained. Only called by the consumer thread.
+   */
+  @Nullable
+  private CrashReportTask remove(@Nullable TaskSpillFile[] spills) {
+    for (int i = 0; i < lanes.length; i++) {
+      CrashReportTask task = remove(lanes[i], takenStamp);
+      if (task != null) {
+        metrics.recordTimeInQueue(task.getType(), System.nanoTime() - takenStamp[0]);
+        return task;
+      }
+      if (spills != null) {
+        task = spills[i].poll();
+        if (task != null) {
+          return task;
+        }
+      }
+    }
     return null;
   }
+
+  @Nullable
+  private CrashReportTask remove(TaskRingBuffer<CrashReportTask> lane, @Nullable long[] stamp) {
+    CrashReportTask task = lane.poll(stamp);
+    if (task != null) {
+      queuedByType.decrementAndGet(task.getType().ordinal());
+    }
+    return task;
+  }
+
+  private TaskRingBuffer<CrashReportTask> laneOf(CrashReportTask task) {
+    return lanes[task.getType().getPriority().ordinal()];
+  }
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private static TaskRingBuffer<CrashReportTask>[] createLanes() {
+    TaskRingBuffer<CrashReportTask>[] lanes = new TaskRingBuffer[TaskPriority.values().length];
+    for (int i = 0; i < lanes.length; i++) {
+      lanes[i] = new TaskRingBuffer<>(CAPACITY);
+    }
+    return lanes;
+  }
+
+  /**
+   * Takes the next task from the lanes and their spill files, and finally a held background event whose session gap
+   * window has passed.
+   */
+  @Nullable
+  private CrashReportTask take() {
+    TaskSpillFile[] spills = spillFiles;
+    if (spills != null) {
+      spillStaged(spills);
+    }
+
+    CrashReportTask task = remove(spills);
+
+    if (task == null) {
+      task = coalescer.releaseExpired(System.currentTimeMillis());
+    }
+
+    return task;
+  }
+
+  private boolean overflow(CrashReportTask task) {
+    switch (overflowPolicy) {
+      case DROP_OLDEST:
+        if (dropOldest(task)) {
+          return true;
+        }
+        break;
+      case COALESCE:
+        if (isIdempotent(task.getType()) && queuedByType.get(task.getType().ordinal()) > 0) {
+          checkpoint(task);
+          coalescedCount.incrementAndGet();
+          metrics.recordCoalesced(task.getType());
+          return true;
+        }
+        break;
+      case SPILL_TO_DISK:
+        if (stage(task)) {
+          return true;
+        }
+        // Tasks which cannot be spilled, such as those holding a callback, make room instead of being lost.
+        if (dropOldest(task)) {
+          return true;
+        }
+        break;
+      case DROP_NEWEST:
+      default:
+        break;
+    }
+
+    checkpoint(task);
+    metrics.recordDropped(task.getType());
+    droppedCount.incrementAndGet();
+    return false;
+  }
+
+  /**
+   * @return whether spilled tasks of the lane of the task wait to be read back, in which case the task is spilled
+   *     behind them.
+   */
+  private boolean isSpilling(CrashReportTask task) {
+    TaskSpillFile[] spills = spillFiles;
+    int lane = task.getType().getPriority().ordinal();
+    return spills != null && (spills[lane].hasPending() || stagedByLane.get(lane) > 0);
+  }
+
+  /**
+   * Stages a task for the consumer thread to spill it.
+   *
+   * @return false if the task cannot be spilled or too many tasks are staged already.
+   */
+  private boolean stage(CrashReportTask task) {
+    if (spillFiles == null || !TaskCodec.isEncodable(task)) {
+      return false;
+    }
+
+    int lane = task.getType().getPriority().ordinal();
+    // Counted before being published so the consumer never sees a negative count.
+    stagedByLane.incrementAndGet(lane);
+    if (!staging.offer(task)) {
+      stagedByLane.decrementAndGet(lane);
+      return false;
+    }
+
+    spilledCount.incrementAndGet();
+    signalConsumer();
+    return true;
+  }
+
+  /**
+   * Writes staged tasks to the spill file of their lane. Only called by the consumer thread.
+   */
+  private void spillStaged(TaskSpillFile[] spills) {
+    CrashReportTask task = staging.poll();
+    while (task != null) {
+      int lane = task.getType().getPriority().ordinal();
+      boolean spilled = spills[lane].append(task);
+      // Decremented once appended so the lane stays spilling in between.
+      stagedByLane.decrementAndGet(lane);
+      if (!spilled) {
+        checkpoint(task);
+        metrics.recordDropped(task.getType());
+        droppedCount.incrementAndGet();
+      }
+      task = staging.poll();
+    }
+  }
+
+  /**
+   * Evicts the oldest tasks of the full lane, counting them as dropped, until the task fits.
+   * Bounded so producers racing for the freed slot cannot spin forever.
+   *
+   * @return false if the task still does not fit.
+   */
+  private boolean dropOldest(CrashReportTask task) {
+    for (int i = 0; i < CAPACITY; i++) {
+      CrashReportTask evicted = remove(laneOf(task), null);
+      if (evicted != null) {
+        checkpoint(evicted);
+        metrics.recordDropped(evicted.getType());
+        droppedCount.incrementAndGet();
+      }
+      if (insert(task)) {
+        signalConsumer();
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Tasks whose effect does not change when they are processed twice in a row.
+   */
+  private static boolean isIdempotent(TaskType type) {
+    return type == TaskType.FLUSH_LIFECYCLES || type == TaskType.NEW_INSTALL;
+  }
+
+  /**
+   * Wakes up the consumer only if it is parked, avoiding a wake up per enqueued task,
+   * or launches a new consumer if none is active.
+   */
+  private void signalConsumer() {
+    Thread consumer = waitingConsumer;
+    if (consumer != null) {
+      LockSupport.unpark(consumer);
+      return;
+    }
+
+    Runnable launcher = consumerLauncher;
+    if (launcher != null && !consumerActive.get() && claimConsumer()) {
+      launcher.run();
+    }
+  }
 }
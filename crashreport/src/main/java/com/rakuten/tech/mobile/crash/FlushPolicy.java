@@ -0,0 +1,55 @@
+package com.rakuten.tech.mobile.crash;
+
+/**
+ * Decides when cached crash-free sessions are flushed to the server. Sessions are held until enough of them were
+ * cached, they reached a given size, or the oldest one is old enough, so they are sent in few larger uploads rather
+ * than waking up the radio for every few sessions. Sessions holding a crash are always sent right away.
+ */
+public final class FlushPolicy {
+
+  /**
+   * Flushes once 50 sessions or 32 KB are cached, or the oldest session is 12 hours old.
+   */
+  public static final FlushPolicy DEFAULT = new FlushPolicy(50, 32 * 1024, 12 * 60 * 60 * 1000);
+
+  private final int maxRecords;
+  private final long maxBytes;
+  private final long maxAgeMillis;
+
+  /**
+   * @param maxRecords number of cached sessions from which they are flushed.
+   * @param maxBytes size in bytes of cached sessions from which they are flushed.
+   * @param maxAgeMillis age of the oldest cached session from which they are flushed.
+   */
+  public FlushPolicy(int maxRecords, long maxBytes, long maxAgeMillis) {
+    this.maxRecords = maxRecords;
+    this.maxBytes = maxBytes;
+    this.maxAgeMillis = maxAgeMillis;
+  }
+
+  public int getMaxRecords() {
+    return maxRecords;
+  }
+
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  public long getMaxAgeMillis() {
+    return maxAgeMillis;
+  }
+
+  /**
+   * @param records number of cached sessions.
+   * @param bytes size in bytes of cached sessions.
+   * @param oldestAgeMillis age of the oldest cached session.
+   * @return whether the cached sessions are flushed now.
+   */
+  public boolean shouldFlush(int records, long bytes, long oldestAgeMillis) {
+    if (records <= 0) {
+      return false;
+    }
+
+    return records >= maxRecords || bytes >= maxBytes || oldestAgeMillis >= maxAgeMillis;
+  }
+}
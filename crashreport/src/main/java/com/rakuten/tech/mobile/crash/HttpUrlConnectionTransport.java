@@ -0,0 +1,71 @@
+package com.rakuten.tech.mobile.crash;
+
+import android.support.annotation.NonNull;
+import com.rakuten.tech.mobile.crash.utils.CommonUtil;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Default transport, sending requests with {@link HttpURLConnection} over connections kept alive by
+ * {@link ConnectionManager}.
+ */
+class HttpUrlConnectionTransport implements Transport {
+
+  static final HttpUrlConnectionTransport INSTANCE = new HttpUrlConnectionTransport();
+
+  private HttpUrlConnectionTransport() {
+  }
+
+  @NonNull
+  @Override
+  public Response post(@NonNull Request request) throws IOException {
+    HttpURLConnection client = (HttpURLConnection) request.getServerUrl().openConnection();
+    for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+      client.setRequestProperty(header.getKey(), header.getValue());
+    }
+    client.setDoOutput(true);
+    client.setDoInput(true);
+    client.setRequestMethod("POST");
+    client.setConnectTimeout(request.getTimeoutMillis());
+    client.setReadTimeout(request.getTimeoutMillis());
+
+    // Released to the connection manager once the response was read, disconnected on any failure before.
+    boolean released = false;
+    try {
+      // Serializes the body straight onto the connection, which is connected once the body size is known
+      // or exceeds the stream buffer.
+      RequestBodyStream body = new RequestBodyStream(client, request.getCompressionMinSize());
+      request.writeBody(body);
+      body.close();
+
+      int statusCode = client.getResponseCode();
+      String retryAfter = client.getHeaderField(CrashReportConstants.HEADER_RETRY_AFTER);
+      // Only the headers read by the SDK are kept.
+      Map<String, String> headers = retryAfter == null
+          ? Collections.<String, String>emptyMap()
+          : Collections.singletonMap(CrashReportConstants.HEADER_RETRY_AFTER, retryAfter);
+
+      // Reads the response to the end so the connection can be reused by the next request.
+      ConnectionManager connections = ConnectionManager.getInstance();
+      String responseBody = null;
+      if (statusCode < 400) {
+        responseBody = CommonUtil.INSTANCE.readInputStreamToString(client.getInputStream(),
+            request.getMaxResponseSize());
+        released = true;
+        connections.release(client, responseBody != null);
+      } else {
+        boolean drained = ConnectionManager.drain(client.getErrorStream());
+        released = true;
+        connections.release(client, drained);
+      }
+
+      return new Response(statusCode, responseBody, headers);
+    } finally {
+      if (!released) {
+        client.disconnect();
+      }
+    }
+  }
+}
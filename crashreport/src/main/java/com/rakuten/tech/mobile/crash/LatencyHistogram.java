@@ -0,0 +1,96 @@
+package com.rakuten.tech.mobile.crash;
+
+/**
+ * Snapshot of a latency distribution, with buckets growing in powers of two microseconds.
+ * Bucket 0 counts latencies under 1 microsecond, and bucket {@code i} latencies from 2^(i-1) up to 2^i
+ * microseconds. The last bucket also counts anything longer.
+ */
+public final class LatencyHistogram {
+
+  static final int BUCKETS = 32;
+  private final long[] buckets;
+  private final long count;
+  private final long totalNanos;
+  private final long maxNanos;
+
+  LatencyHistogram(long[] buckets, long totalNanos, long maxNanos) {
+    this.buckets = buckets;
+    this.totalNanos = totalNanos;
+    this.maxNanos = maxNanos;
+
+    long sum = 0;
+    for (long bucket : buckets) {
+      sum += bucket;
+    }
+    count = sum;
+  }
+
+  /**
+   * Index of the bucket counting the given latency.
+   */
+  static int bucketOf(long nanos) {
+    long micros = nanos / 1000;
+    int bucket = 64 - Long.numberOfLeadingZeros(micros);
+    return Math.min(bucket, BUCKETS - 1);
+  }
+
+  /**
+   * Number of latencies recorded.
+   */
+  public long getCount() {
+    return count;
+  }
+
+  public long getTotalNanos() {
+    return totalNanos;
+  }
+
+  public long getMaxNanos() {
+    return maxNanos;
+  }
+
+  /**
+   * @return average latency, or 0 if none was recorded.
+   */
+  public long getMeanNanos() {
+    return count == 0 ? 0 : totalNanos / count;
+  }
+
+  public int getBucketCount() {
+    return BUCKETS;
+  }
+
+  /**
+   * Number of latencies recorded in the given bucket.
+   */
+  public long getBucket(int index) {
+    return buckets[index];
+  }
+
+  /**
+   * Exclusive upper bound of the given bucket in microseconds.
+   */
+  public long getBucketUpperBoundMicros(int index) {
+    return 1L << index;
+  }
+
+  /**
+   * Estimates a percentile as the upper bound of the bucket reaching it.
+   *
+   * @param percentile between 0 and 100.
+   * @return the estimate in microseconds, or 0 if no latency was recorded.
+   */
+  public long getPercentileMicros(double percentile) {
+    long threshold = (long) Math.ceil(count * percentile / 100);
+    long seen = 0;
+
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += buckets[i];
+      if (seen > 0 && seen >= threshold) {
+        return getBucketUpperBoundMicros(i);
+      }
+    }
+
+    return 0;
+  }
+}
@@ -0,0 +1,68 @@
+package com.rakuten.tech.mobile.crash;
+
+import android.support.annotation.Nullable;
+import com.rakuten.tech.mobile.crash.tasks.BackgroundTask;
+import com.rakuten.tech.mobile.crash.tasks.ForegroundTask;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Holds back the latest background event for the session gap window. A foreground event arriving within the
+ * window continues the same session, so the pair can be dropped before it ever reaches the task queue.
+ */
+class LifecycleCoalescer {
+
+  private final AtomicReference<BackgroundTask> pendingBackground = new AtomicReference<>();
+
+  /**
+   * Holds back a background event in place of the current one.
+   *
+   * @return the background event previously held, which must now be queued.
+   */
+  @Nullable
+  BackgroundTask hold(BackgroundTask task) {
+    return pendingBackground.getAndSet(task);
+  }
+
+  /**
+   * @return the held background event, or null if none is held.
+   */
+  @Nullable
+  BackgroundTask release() {
+    return pendingBackground.getAndSet(null);
+  }
+
+  /**
+   * @return the held background event if its session gap window has passed, otherwise null.
+   */
+  @Nullable
+  BackgroundTask releaseExpired(long now) {
+    BackgroundTask task = pendingBackground.get();
+
+    if (task != null && millisUntilExpiry(task, now) == 0
+        && pendingBackground.compareAndSet(task, null)) {
+      return task;
+    }
+
+    return null;
+  }
+
+  /**
+   * @return milliseconds until the held background event expires, or -1 if none is held.
+   */
+  long millisUntilExpiry(long now) {
+    BackgroundTask task = pendingBackground.get();
+    return task == null ? -1 : millisUntilExpiry(task, now);
+  }
+
+  /**
+   * Matches the session rule of SessionLifecycleProcessor, which ignores returns to foreground within the gap.
+   */
+  static boolean continuesSession(BackgroundTask background, ForegroundTask foreground) {
+    return foreground.getTimestamp() - background.getTimestamp()
+        <= CrashReportConstants.SESSION_GAP_MILLIS;
+  }
+
+  private static long millisUntilExpiry(BackgroundTask task, long now) {
+    return Math.max(0, task.getTimestamp() + CrashReportConstants.SESSION_GAP_MILLIS - now);
+  }
+}
@@ -5,11 +5,11 @@ import android.content.Context;
 import android.content.Intent;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
-import android.os.AsyncTask;
 import android.os.Handler;
 import android.preference.PreferenceManager;
 import com.rakuten.tech.mobile.crash.tasks.CrashReportTask;
 import com.rakuten.tech.mobile.crash.tasks.FlushLifecyclesTask;
+import java.util.Random;
 
 /**
  * Broadcast receiver that listens to changes in network state and acts according to the flags it reads.
@@ -17,6 +17,11 @@ import com.rakuten.tech.mobile.crash.tasks.FlushLifecyclesTask;
  */
 public class NetworkStateReceiver extends BroadcastReceiver {
 
+  private static final long CONNECTED_DELAY_MILLIS = 5000;
+  // Spreads the uploads of devices reconnecting at the same time, such as after a network outage.
+  private static final int CONNECTED_JITTER_MILLIS = 25000;
+  private static final Random RANDOM = new Random();
+
   @Override
   public void onReceive(final Context context, Intent intent) {
     // NetworkInfo is null in airplane mode.
@@ -26,7 +31,7 @@ public class NetworkStateReceiver extends BroadcastReceiver {
     if (networkInfo != null
         && networkInfo.getDetailedState() == NetworkInfo.DetailedState.CONNECTED) {
 
-      // Delays lifecycle cache flushing for 5 seconds for device to be fully connected to the internet.
+      // Delays lifecycle cache flushing for at least 5 seconds for device to be fully connected to the internet.
       new Handler().postDelayed(new Runnable() {
         @Override
         public void run() {
@@ -43,10 +48,10 @@ public class NetworkStateReceiver extends BroadcastReceiver {
               .getDefaultSharedPreferences(context).getBoolean(CrashReportConstants
                   .FLUSH_LIFECYCLES, false)) {
 
-            queueTaskInBackground(new FlushLifecyclesTask());
+            submitTask(new FlushLifecyclesTask());
           }
         }
-      }, 5000);
+      }, CONNECTED_DELAY_MILLIS + RANDOM.nextInt(CONNECTED_JITTER_MILLIS));
     }
   }
 
@@ -62,15 +67,9 @@ public class NetworkStateReceiver extends BroadcastReceiver {
   }
 
   /**
-   * Queue crash reporting tasks asynchronously to ensure crash reporting does not affect the app performance on the main thread.
+   * Queue crash reporting tasks without blocking, so it is safe to call from the main thread.
    */
-  private void queueTaskInBackground(final CrashReportTask task) {
-    new AsyncTask<Void, Void, Void>() {
-      @Override
-      protected Void doInBackground(Void... voids) {
-        CrashReportTaskQueue.getInstance().enqueue(task);
-        return null;
-      }
-    }.execute();
+  private void submitTask(CrashReportTask task) {
+    CrashReportTaskQueue.getInstance().offer(task);
   }
 }
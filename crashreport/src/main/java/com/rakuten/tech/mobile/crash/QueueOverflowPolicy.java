@@ -0,0 +1,28 @@
+package com.rakuten.tech.mobile.crash;
+
+/**
+ * Decides what happens to a task offered while the Crash Reporting task queue is full.
+ * None of the policies block the calling thread.
+ */
+public enum QueueOverflowPolicy {
+  /**
+   * Evicts the oldest queued task to make room for the new one.
+   */
+  DROP_OLDEST,
+  /**
+   * Discards the task being offered.
+   */
+  DROP_NEWEST,
+  /**
+   * Merges the task being offered into an already queued task of the same type, when repeating that type has
+   * no additional effect. Other tasks are discarded.
+   */
+  COALESCE,
+  /**
+   * Appends the task to a file in the application cache, to be processed once the queued tasks of the same
+   * priority drain. Tasks of a higher priority are still processed first.
+   * Tasks that cannot be persisted, such as those holding a callback, evict the oldest queued task of the same
+   * priority instead, as with {@link #DROP_OLDEST}.
+   */
+  SPILL_TO_DISK
+}
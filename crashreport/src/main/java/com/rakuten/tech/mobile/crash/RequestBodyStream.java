@@ -0,0 +1,86 @@
+package com.rakuten.tech.mobile.crash;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Streams a request body onto a connection, holding back at most a small buffer.
+ * A body fitting in the buffer is sent with a fixed length once closed. A larger body is sent in chunks as it is
+ * written, gzip compressed if compression is enabled, so the whole body is never held in memory.
+ */
+class RequestBodyStream extends OutputStream {
+
+  private static final int BUFFER_SIZE = 8192;
+  private static final int MAX_COMPRESSION_MIN_SIZE = 65536;
+  private final HttpURLConnection connection;
+  private final boolean compress;
+  private final byte[] buffer;
+  private int count = 0;
+  private OutputStream stream;
+
+  /**
+   * @param compressionMinSize size in bytes from which the body is gzip compressed, negative to disable compression.
+   * Sizes above 64 KB are lowered to it, bounding the buffer.
+   */
+  RequestBodyStream(HttpURLConnection connection, int compressionMinSize) {
+    this.connection = connection;
+    compress = compressionMinSize >= 0;
+    buffer = new byte[compress ? Math.min(compressionMinSize, MAX_COMPRESSION_MIN_SIZE) : BUFFER_SIZE];
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    if (stream == null && count + 1 < buffer.length) {
+      buffer[count++] = (byte) b;
+      return;
+    }
+
+    if (stream == null) {
+      startStreaming();
+    }
+    stream.write(b);
+  }
+
+  @Override
+  public void write(byte[] bytes, int offset, int length) throws IOException {
+    if (stream == null && count + length < buffer.length) {
+      System.arraycopy(bytes, offset, buffer, count, length);
+      count += length;
+      return;
+    }
+
+    if (stream == null) {
+      startStreaming();
+    }
+    stream.write(bytes, offset, length);
+  }
+
+  /**
+   * Sends the body if it was not streamed yet, then completes it.
+   */
+  @Override
+  public void close() throws IOException {
+    if (stream == null) {
+      connection.setFixedLengthStreamingMode(count);
+      connection.connect();
+      stream = connection.getOutputStream();
+      stream.write(buffer, 0, count);
+    }
+    stream.close();
+  }
+
+  private void startStreaming() throws IOException {
+    if (compress) {
+      connection.setRequestProperty(CrashReportConstants.HEADER_CONTENT_ENCODING, CrashReportConstants.GZIP);
+    }
+    connection.setChunkedStreamingMode(0);
+    connection.connect();
+
+    stream = compress
+        ? new GZIPOutputStream(connection.getOutputStream(), BUFFER_SIZE)
+        : connection.getOutputStream();
+    stream.write(buffer, 0, count);
+  }
+}
@@ -0,0 +1,62 @@
+package com.rakuten.tech.mobile.crash;
+
+import java.util.Random;
+
+/**
+ * Decides whether and when a failed request is sent again.
+ * Delays grow exponentially with the attempt number and are fully jittered, spreading the retries of many devices
+ * failing at once. A delay requested by the server through {@code Retry-After} is honored, unless it is longer than
+ * the maximum delay, in which case the request is given up.
+ */
+public final class RetryPolicy {
+
+  /**
+   * Sends requests once.
+   */
+  public static final RetryPolicy NONE = new RetryPolicy(1, 0, 0);
+
+  /**
+   * Up to 5 attempts, waiting around 2, 4, 8 then 16 seconds between them.
+   */
+  public static final RetryPolicy DEFAULT = new RetryPolicy(5, 2000, 5 * 60 * 1000);
+
+  private final int maxAttempts;
+  private final long baseDelayMillis;
+  private final long maxDelayMillis;
+  private final Random random = new Random();
+
+  /**
+   * @param maxAttempts number of times a request is sent at most, including the first attempt.
+   * @param baseDelayMillis upper bound of the delay before the first retry, doubled for each following retry.
+   * @param maxDelayMillis longest delay before a retry.
+   */
+  public RetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis) {
+    this.maxAttempts = maxAttempts;
+    this.baseDelayMillis = baseDelayMillis;
+    this.maxDelayMillis = maxDelayMillis;
+  }
+
+  /**
+   * Server errors, throttling, timeouts and failures to reach the server are retried, while other client errors
+   * would fail again.
+   */
+  static boolean isRetryable(int statusCode) {
+    return statusCode >= 500 || statusCode == 429 || statusCode == 408;
+  }
+
+  /**
+   * @param attempt number of attempts already made, starting at 1.
+   * @param statusCode status code of the last attempt.
+   * @param retryAfterMillis delay requested by the server, or a negative value if none.
+   * @return delay before the next attempt, or a negative value if the request must not be retried.
+   */
+  long nextDelayMillis(int attempt, int statusCode, long retryAfterMillis) {
+    if (attempt >= maxAttempts || !isRetryable(statusCode) || retryAfterMillis > maxDelayMillis) {
+      return -1;
+    }
+
+    long bound = Math.min(maxDelayMillis, baseDelayMillis << Math.min(attempt - 1, 30));
+    long jittered = bound <= 0 ? 0 : (long) (random.nextDouble() * bound);
+    return Math.max(jittered, retryAfterMillis);
+  }
+}
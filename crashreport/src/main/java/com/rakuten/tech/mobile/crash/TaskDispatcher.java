@@ -0,0 +1,46 @@
+package com.rakuten.tech.mobile.crash;
+
+import android.content.Context;
+import android.util.Log;
+import com.rakuten.tech.mobile.crash.processors.CrashReportProcessor;
+import com.rakuten.tech.mobile.crash.tasks.CrashReportTask;
+import com.rakuten.tech.mobile.crash.tasks.CrashReportTask.TaskType;
+import com.rakuten.tech.mobile.crash.tasks.RecyclableTask;
+import java.util.Map;
+
+/**
+ * Hands tasks taken from the queue to the processor of their type.
+ */
+class TaskDispatcher {
+
+  private final static String TAG = "TaskDispatcher";
+  private final Map<TaskType, CrashReportProcessor> processors;
+  private final CrashReportTaskQueue queue;
+
+  TaskDispatcher(Map<TaskType, CrashReportProcessor> processors, CrashReportTaskQueue queue) {
+    this.processors = processors;
+    this.queue = queue;
+  }
+
+  /**
+   * Executes a crash reporting task from the queue.
+   */
+  void dispatch(Context context, CrashReportTask task) {
+    CrashReportProcessor processor = processors.get(task.getType());
+
+    if (processor != null) {
+      long start = System.nanoTime();
+      processor.processTask(context, task);
+      queue.recordProcessing(task, System.nanoTime() - start);
+    } else {
+      Log.e(TAG, "No processor found for the given task type: " + task.getType().toString());
+    }
+
+    queue.checkpoint(task);
+
+    // Pooled tasks are no longer referenced once processed.
+    if (task instanceof RecyclableTask) {
+      ((RecyclableTask) task).recycle();
+    }
+  }
+}
@@ -0,0 +1,204 @@
+package com.rakuten.tech.mobile.crash;
+
+import android.support.annotation.Nullable;
+import android.util.Log;
+import com.rakuten.tech.mobile.crash.tasks.CrashReportTask;
+import com.rakuten.tech.mobile.crash.tasks.CrashReportTask.TaskType;
+import com.rakuten.tech.mobile.crash.tasks.TaskCodec;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Write-ahead journal of queued tasks backed by a memory-mapped file, so tasks survive the process being killed.
+ * Tasks are appended when queued and checkpointed once processed or dropped; whatever is left is replayed on the
+ * next start. Writes go to the page cache through absolute accesses only, which is durable across process death
+ * and safe from concurrent producers.
+ *
+ * Only foreground and background events are journaled. Flushes and install reports are already recorded in
+ * shared preferences and queued again on every start. Replayed events only make sense on top of the session they
+ * belong to, so the journal also holds the session times as of the last processed event.
+ *
+ * The journal is a ring of fixed size records, each holding an id and an encoded task. An id of 0 marks a free
+ * record. When more tasks are pending than the ring holds, the oldest records are overwritten.
+ */
+class TaskJournal {
+
+  private final static String TAG = "TaskJournal";
+  private static final int MAGIC = 0x43524a31;
+  private static final int VERSION = 2;
+  private static final int SESSION_START_OFFSET = 16;
+  private static final int SESSION_END_OFFSET = 24;
+  private static final int HEADER_SIZE = 32;
+  private static final int RECORD_SIZE = 16;
+  private static final int CAPACITY = 256;
+  private final MappedByteBuffer buffer;
+  private final AtomicLong nextId = new AtomicLong(1);
+
+  private TaskJournal(MappedByteBuffer buffer) {
+    this.buffer = buffer;
+  }
+
+  /**
+   * Maps the journal file in the given directory, creating it if needed.
+   *
+   * @return null if the file could not be mapped.
+   */
+  @Nullable
+  static TaskJournal open(File directory) {
+    try {
+      RandomAccessFile file = new RandomAccessFile(
+          new File(directory, CrashReportConstants.TASK_JOURNAL_FILE), "rw");
+      try {
+        MappedByteBuffer buffer = file.getChannel()
+            .map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + CAPACITY * RECORD_SIZE);
+        TaskJournal journal = new TaskJournal(buffer);
+        journal.validateHeader();
+        return journal;
+      } finally {
+        // The mapping stays valid after the file is closed.
+        file.close();
+      }
+    } catch (IOException e) {
+      Log.e(TAG, "Failed to open task journal.", e);
+    }
+
+    return null;
+  }
+
+  /**
+   * Appends a task to the journal.
+   */
+  void append(CrashReportTask task) {
+    if (!isJournaled(task)) {
+      return;
+    }
+
+    long id = nextId.getAndIncrement();
+    int position = positionOf(id);
+
+    buffer.putLong(position + 8, TaskCodec.encode(task));
+    // Written last, so a record is only live once complete.
+    buffer.putLong(position, id);
+  }
+
+  /**
+   * Frees the oldest record holding the same task. Tasks encoding to the same value are interchangeable, so
+   * there is no need to track which record a task was appended to. Concurrent checkpoints of equal tasks may
+   * leave one record behind, which is then replayed once more.
+   */
+  void checkpoint(CrashReportTask task) {
+    if (!isJournaled(task)) {
+      return;
+    }
+
+    long code = TaskCodec.encode(task);
+    int oldestPosition = -1;
+    long oldestId = Long.MAX_VALUE;
+
+    for (int i = 0; i < CAPACITY; i++) {
+      int position = HEADER_SIZE + i * RECORD_SIZE;
+      long id = buffer.getLong(position);
+
+      if (id != 0 && id < oldestId && buffer.getLong(position + 8) == code) {
+        oldestId = id;
+        oldestPosition = position;
+      }
+    }
+
+    if (oldestPosition >= 0) {
+      buffer.putLong(oldestPosition, 0);
+    }
+  }
+
+  /**
+   * Saves the session times once an event was processed, before the event is checkpointed.
+   */
+  void saveSession(long sessionStart, long sessionEnd) {
+    buffer.putLong(SESSION_START_OFFSET, sessionStart);
+    buffer.putLong(SESSION_END_OFFSET, sessionEnd);
+  }
+
+  /**
+   * @return start time of the last saved session, or 0 if none was saved.
+   */
+  long getSessionStart() {
+    return buffer.getLong(SESSION_START_OFFSET);
+  }
+
+  /**
+   * @return end time of the last saved session, or 0 if none was saved.
+   */
+  long getSessionEnd() {
+    return buffer.getLong(SESSION_END_OFFSET);
+  }
+
+  /**
+   * Removes all tasks left in the journal by a previous process.
+   *
+   * @return the tasks in the order they were appended.
+   */
+  List<CrashReportTask> replay() {
+    List<long[]> records = new ArrayList<>();
+
+    for (int i = 0; i < CAPACITY; i++) {
+      int position = HEADER_SIZE + i * RECORD_SIZE;
+      long id = buffer.getLong(position);
+
+      if (id != 0) {
+        records.add(new long[]{id, buffer.getLong(position + 8)});
+        buffer.putLong(position, 0);
+      }
+    }
+
+    Collections.sort(records, new Comparator<long[]>() {
+      @Override
+      public int compare(long[] first, long[] second) {
+        return first[0] < second[0] ? -1 : (first[0] == second[0] ? 0 : 1);
+      }
+    });
+
+    List<CrashReportTask> tasks = new ArrayList<>(records.size());
+    for (long[] record : records) {
+      CrashReportTask task = TaskCodec.decode(record[1]);
+      if (task != null) {
+        tasks.add(task);
+      }
+      nextId.set(Math.max(nextId.get(), record[0] + 1));
+    }
+
+    return tasks;
+  }
+
+  private static boolean isJournaled(CrashReportTask task) {
+    TaskType type = task.getType();
+    return (type == TaskType.FOREGROUND || type == TaskType.BACKGROUND) && TaskCodec.isEncodable(task);
+  }
+
+  private int positionOf(long id) {
+    return HEADER_SIZE + (int) (id % CAPACITY) * RECORD_SIZE;
+  }
+
+  /**
+   * Starts from an empty journal if the file is new or was written in another format.
+   */
+  private void validateHeader() {
+    if (buffer.getInt(0) == MAGIC && buffer.getInt(4) == VERSION && buffer.getInt(8) == CAPACITY) {
+      return;
+    }
+
+    for (int position = 0; position < buffer.capacity(); position += 8) {
+      buffer.putLong(position, 0);
+    }
+    buffer.putInt(0, MAGIC);
+    buffer.putInt(4, VERSION);
+    buffer.putInt(8, CAPACITY);
+  }
+}
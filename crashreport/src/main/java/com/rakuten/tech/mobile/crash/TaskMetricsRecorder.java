@@ -0,0 +1,105 @@
+package com.rakuten.tech.mobile.crash;
+
+import com.rakuten.tech.mobile.crash.tasks.CrashReportTask.TaskType;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records per task type metrics of the task queue and processor in atomic arrays indexed by
+ * {@link TaskType} ordinal, so recording neither locks nor allocates.
+ */
+class TaskMetricsRecorder {
+
+  private static final TaskType[] TYPES = TaskType.values();
+  private final AtomicIntegerArray peakDepth = new AtomicIntegerArray(TYPES.length);
+  private final AtomicLongArray dropped = new AtomicLongArray(TYPES.length);
+  private final AtomicLongArray coalesced = new AtomicLongArray(TYPES.length);
+  private final AtomicLongArray blockedCount = new AtomicLongArray(TYPES.length);
+  private final AtomicLongArray blockedNanos = new AtomicLongArray(TYPES.length);
+  private final Histogram timeInQueue = new Histogram();
+  private final Histogram processing = new Histogram();
+
+  void recordDepth(TaskType type, int depth) {
+    int index = type.ordinal();
+    int peak = peakDepth.get(index);
+    while (depth > peak && !peakDepth.compareAndSet(index, peak, depth)) {
+      peak = peakDepth.get(index);
+    }
+  }
+
+  void recordDropped(TaskType type) {
+    dropped.incrementAndGet(type.ordinal());
+  }
+
+  void recordCoalesced(TaskType type) {
+    coalesced.incrementAndGet(type.ordinal());
+  }
+
+  void recordBlocked(TaskType type, long nanos) {
+    blockedCount.incrementAndGet(type.ordinal());
+    blockedNanos.addAndGet(type.ordinal(), nanos);
+  }
+
+  void recordTimeInQueue(TaskType type, long nanos) {
+    timeInQueue.record(type, nanos);
+  }
+
+  void recordProcessing(TaskType type, long nanos) {
+    processing.record(type, nanos);
+  }
+
+  /**
+   * @param depth current number of tasks waiting in memory per task type ordinal.
+   */
+  Map<TaskType, TaskTypeMetrics> snapshot(AtomicIntegerArray depth) {
+    Map<TaskType, TaskTypeMetrics> metrics = new EnumMap<>(TaskType.class);
+
+    for (TaskType type : TYPES) {
+      int index = type.ordinal();
+      metrics.put(type, new TaskTypeMetrics(
+          Math.max(0, depth.get(index)),
+          peakDepth.get(index),
+          dropped.get(index),
+          coalesced.get(index),
+          blockedCount.get(index),
+          blockedNanos.get(index),
+          timeInQueue.snapshot(type),
+          processing.snapshot(type)));
+    }
+
+    return metrics;
+  }
+
+  /**
+   * Latency histograms of all task types, flattened in a single array.
+   */
+  private static class Histogram {
+
+    private final AtomicLongArray buckets = new AtomicLongArray(TYPES.length * LatencyHistogram.BUCKETS);
+    private final AtomicLongArray total = new AtomicLongArray(TYPES.length);
+    private final AtomicLongArray max = new AtomicLongArray(TYPES.length);
+
+    void record(TaskType type, long latency) {
+      long nanos = Math.max(0, latency);
+      int index = type.ordinal();
+      buckets.incrementAndGet(index * LatencyHistogram.BUCKETS + LatencyHistogram.bucketOf(nanos));
+      total.addAndGet(index, nanos);
+
+      long current = max.get(index);
+      while (nanos > current && !max.compareAndSet(index, current, nanos)) {
+        current = max.get(index);
+      }
+    }
+
+    LatencyHistogram snapshot(TaskType type) {
+      int index = type.ordinal();
+      long[] counts = new long[LatencyHistogram.BUCKETS];
+      for (int i = 0; i < counts.length; i++) {
+        counts[i] = buckets.get(index * LatencyHistogram.BUCKETS + i);
+      }
+      return new LatencyHistogram(counts, total.get(index), max.get(index));
+    }
+  }
+}
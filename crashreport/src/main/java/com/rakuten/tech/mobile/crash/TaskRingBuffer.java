@@ -0,0 +1,139 @@
+package com.rakuten.tech.mobile.crash;
+
+import android.support.annotation.Nullable;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded, array backed ring buffer for many producer threads and a single consumer thread.
+ * Producers claim a slot by advancing the tail with a CAS and publish it through a per slot sequence number,
+ * so neither side takes a lock and no memory is allocated once the buffer is created.
+ * The head is advanced with a CAS as well, which lets a producer evict the oldest element when the buffer is full.
+ * Each element may carry a stamp, such as the time it was inserted, stored alongside it without allocation.
+ */
+class TaskRingBuffer<E> {
+
+  private final int mask;
+  private final AtomicReferenceArray<E> elements;
+  private final AtomicLongArray sequences;
+  // Plain array, published and consumed through the sequence of the same slot.
+  private final long[] stamps;
+  private final AtomicLong tail = new AtomicLong();
+  private final AtomicLong head = new AtomicLong();
+
+  /**
+   * @param capacity maximum number of elements, must be a power of two.
+   */
+  TaskRingBuffer(int capacity) {
+    if (capacity < 2 || Integer.bitCount(capacity) != 1) {
+      throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+    }
+
+    mask = capacity - 1;
+    elements = new AtomicReferenceArray<>(capacity);
+    sequences = new AtomicLongArray(capacity);
+    stamps = new long[capacity];
+    for (int i = 0; i < capacity; i++) {
+      sequences.set(i, i);
+    }
+  }
+
+  /**
+   * Inserts an element at the tail of the buffer. Safe to call from any thread.
+   *
+   * @return false if the buffer is full.
+   */
+  boolean offer(E element) {
+    return offer(element, 0);
+  }
+
+  /**
+   * Inserts an element at the tail of the buffer together with a stamp. Safe to call from any thread.
+   *
+   * @return false if the buffer is full.
+   */
+  boolean offer(E element, long stamp) {
+    long position = tail.get();
+
+    while (true) {
+      int index = (int) position & mask;
+      long difference = sequences.get(index) - position;
+
+      if (difference == 0) {
+        if (tail.compareAndSet(position, position + 1)) {
+          elements.lazySet(index, element);
+          stamps[index] = stamp;
+          // Volatile store so a consumer checking the buffer before parking always observes it.
+          sequences.set(index, position + 1);
+          return true;
+        }
+        position = tail.get();
+      } else if (difference < 0) {
+        // Slot still holds an element from the previous lap.
+        return false;
+      } else {
+        // Another producer claimed this slot first.
+        position = tail.get();
+      }
+    }
+  }
+
+  /**
+   * Removes the element at the head of the buffer. Called by the consumer thread, or by a producer evicting
+   * the oldest element.
+   *
+   * @return null if the buffer is empty.
+   */
+  E poll() {
+    return poll(null);
+  }
+
+  /**
+   * Removes the element at the head of the buffer, like {@link #poll()}.
+   *
+   * @param stamp receives the stamp the element was inserted with in its first item, unless null.
+   */
+  E poll(@Nullable long[] stamp) {
+    long position = head.get();
+
+    while (true) {
+      int index = (int) position & mask;
+      long difference = sequences.get(index) - (position + 1);
+
+      if (difference == 0) {
+        if (head.compareAndSet(position, position + 1)) {
+          E element = elements.get(index);
+          if (stamp != null) {
+            stamp[0] = stamps[index];
+          }
+          elements.lazySet(index, null);
+          sequences.lazySet(index, position + mask + 1);
+          return element;
+        }
+        position = head.get();
+      } else if (difference < 0) {
+        return null;
+      } else {
+        // Another thread took this element first.
+        position = head.get();
+      }
+    }
+  }
+
+  /**
+   * Approximate number of elements in the buffer, exact when producers and consumer are quiescent.
+   */
+  int size() {
+    long size = tail.get() - head.get();
+    return (int) Math.max(0, Math.min(size, mask + 1));
+  }
+
+  boolean isEmpty() {
+    return size() == 0;
+  }
+
+  int capacity() {
+    return mask + 1;
+  }
+}
@@ -0,0 +1,106 @@
+package com.rakuten.tech.mobile.crash;
+
+import android.support.annotation.Nullable;
+import android.util.Log;
+import com.rakuten.tech.mobile.crash.tasks.CrashReportTask;
+import com.rakuten.tech.mobile.crash.tasks.TaskCodec;
+import com.rakuten.tech.mobile.crash.tasks.TaskPriority;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Locale;
+
+/**
+ * Overflow storage for tasks of one priority that do not fit in the in-memory queue.
+ * Tasks are appended as encoded longs and read back in the order they were written.
+ * Only accessed by the consumer thread of the task queue, so access is simply synchronized.
+ */
+class TaskSpillFile {
+
+  private final static String TAG = "TaskSpillFile";
+  private final File file;
+  private RandomAccessFile spill;
+  private long readOffset = 0;
+  private volatile boolean pending = false;
+
+  TaskSpillFile(File directory, TaskPriority priority) {
+    file = new File(directory, priority.name().toLowerCase(Locale.US) + "_" + CrashReportConstants.TASK_SPILL_FILE);
+    // Tasks spilled by a previous process are not replayed.
+    file.delete();
+  }
+
+  /**
+   * @return true if there are spilled tasks waiting to be read.
+   */
+  boolean hasPending() {
+    return pending;
+  }
+
+  /**
+   * Appends a task to the end of the file.
+   *
+   * @return false if the task cannot be encoded or written.
+   */
+  synchronized boolean append(CrashReportTask task) {
+    if (!TaskCodec.isEncodable(task)) {
+      return false;
+    }
+
+    try {
+      if (spill == null) {
+        spill = new RandomAccessFile(file, "rw");
+      }
+      spill.seek(spill.length());
+      spill.writeLong(TaskCodec.encode(task));
+      pending = true;
+      return true;
+    } catch (IOException e) {
+      Log.e(TAG, "Failed to spill task to disk.", e);
+    }
+
+    return false;
+  }
+
+  /**
+   * Reads the oldest unread task and deletes the file once all tasks were read.
+   *
+   * @return null if no spilled tasks are pending.
+   */
+  @Nullable
+  synchronized CrashReportTask poll() {
+    if (!pending) {
+      return null;
+    }
+
+    CrashReportTask task = null;
+    try {
+      // Skips entries that do not decode to a known task.
+      while (task == null && pending) {
+        spill.seek(readOffset);
+        task = TaskCodec.decode(spill.readLong());
+        readOffset += 8;
+
+        if (readOffset >= spill.length()) {
+          reset();
+        }
+      }
+    } catch (IOException e) {
+      Log.e(TAG, "Failed to read spilled task from disk.", e);
+      reset();
+    }
+
+    return task;
+  }
+
+  private void reset() {
+    try {
+      spill.close();
+    } catch (IOException e) {
+      Log.d(TAG, "Error closing spill file");
+    }
+    spill = null;
+    readOffset = 0;
+    pending = false;
+    file.delete();
+  }
+}
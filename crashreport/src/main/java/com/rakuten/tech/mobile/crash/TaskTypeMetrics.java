@@ -0,0 +1,85 @@
+package com.rakuten.tech.mobile.crash;
+
+/**
+ * Snapshot of how tasks of one type went through the crash reporting task queue and processor.
+ */
+public final class TaskTypeMetrics {
+
+  private final int depth;
+  private final int peakDepth;
+  private final long droppedCount;
+  private final long coalescedCount;
+  private final long blockedEnqueueCount;
+  private final long blockedEnqueueNanos;
+  private final LatencyHistogram timeInQueue;
+  private final LatencyHistogram processingLatency;
+
+  TaskTypeMetrics(int depth, int peakDepth, long droppedCount, long coalescedCount, long blockedEnqueueCount,
+      long blockedEnqueueNanos, LatencyHistogram timeInQueue, LatencyHistogram processingLatency) {
+    this.depth = depth;
+    this.peakDepth = peakDepth;
+    this.droppedCount = droppedCount;
+    this.coalescedCount = coalescedCount;
+    this.blockedEnqueueCount = blockedEnqueueCount;
+    this.blockedEnqueueNanos = blockedEnqueueNanos;
+    this.timeInQueue = timeInQueue;
+    this.processingLatency = processingLatency;
+  }
+
+  /**
+   * Number of tasks currently waiting in memory.
+   */
+  public int getDepth() {
+    return depth;
+  }
+
+  /**
+   * Highest number of tasks that waited in memory at once.
+   */
+  public int getPeakDepth() {
+    return peakDepth;
+  }
+
+  /**
+   * Number of tasks dropped because the queue was full.
+   */
+  public long getDroppedCount() {
+    return droppedCount;
+  }
+
+  /**
+   * Number of tasks merged into another task, or dropped together with a task they cancel out.
+   */
+  public long getCoalescedCount() {
+    return coalescedCount;
+  }
+
+  /**
+   * Number of times a task was offered while the queue was full, so the overflow policy was applied, or a thread
+   * had to wait for room in the queue.
+   */
+  public long getBlockedEnqueueCount() {
+    return blockedEnqueueCount;
+  }
+
+  /**
+   * Total time threads spent applying the overflow policy or waiting for room in the queue.
+   */
+  public long getBlockedEnqueueNanos() {
+    return blockedEnqueueNanos;
+  }
+
+  /**
+   * Time from being queued in memory to being taken by the processor. Tasks read back from disk are not included.
+   */
+  public LatencyHistogram getTimeInQueue() {
+    return timeInQueue;
+  }
+
+  /**
+   * Time spent by the processor on a task. Uploads continue in the background and are not included.
+   */
+  public LatencyHistogram getProcessingLatency() {
+    return processingLatency;
+  }
+}
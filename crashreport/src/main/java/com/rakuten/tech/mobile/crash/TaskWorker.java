@@ -0,0 +1,169 @@
+package com.rakuten.tech.mobile.crash;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.os.Bundle;
+import android.util.Log;
+import com.rakuten.tech.mobile.crash.processors.BatchUploadProcessor;
+import com.rakuten.tech.mobile.crash.processors.ConfigProcessor;
+import com.rakuten.tech.mobile.crash.processors.CrashReportProcessor;
+import com.rakuten.tech.mobile.crash.processors.ReportInstallEventProcessor;
+import com.rakuten.tech.mobile.crash.processors.SessionLifecycleProcessor;
+import com.rakuten.tech.mobile.crash.tasks.CrashReportTask;
+import com.rakuten.tech.mobile.crash.tasks.RestoreSessionTask;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Worker thread handling crash reporting tasks asynchronously relative to the application main thread.
+ * The thread is started when a task is queued and released after being idle for a while.
+ * It replaces the {@link TaskProcessor} service.
+ */
+class TaskWorker {
+
+  private static final TaskWorker INSTANCE = new TaskWorker();
+  private final static String TAG = "TaskWorker";
+  private static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 30000;
+  private final TaskDispatcher dispatcher = new TaskDispatcher(
+      new HashMap<CrashReportTask.TaskType, CrashReportProcessor>() {
+        {
+          put(CrashReportTask.TaskType.GET_CONFIG, ConfigProcessor.getInstance());
+          put(CrashReportTask.TaskType.NEW_INSTALL, ReportInstallEventProcessor.getInstance());
+          put(CrashReportTask.TaskType.FLUSH_LIFECYCLES, SessionLifecycleProcessor.getInstance());
+          put(CrashReportTask.TaskType.FOREGROUND, SessionLifecycleProcessor.getInstance());
+          put(CrashReportTask.TaskType.BACKGROUND, SessionLifecycleProcessor.getInstance());
+          put(CrashReportTask.TaskType.BATCH_UPLOAD, BatchUploadProcessor.getInstance());
+          put(CrashReportTask.TaskType.RECOVER_CRASH, SessionLifecycleProcessor.getInstance());
+          put(CrashReportTask.TaskType.RESTORE_SESSION, SessionLifecycleProcessor.getInstance());
+        }
+      }, CrashReportTaskQueue.getInstance());
+  private final AtomicInteger threadCount = new AtomicInteger();
+  private volatile long idleTimeoutMillis = DEFAULT_IDLE_TIMEOUT_MILLIS;
+  private Context context;
+  // Left by the previous process, until replayed once the SDK is known to be enabled.
+  private List<CrashReportTask> replayedEvents = Collections.emptyList();
+  private long replayedSessionStart;
+  private long replayedSessionEnd;
+
+  private TaskWorker() {
+  }
+
+  static TaskWorker getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Lets the task queue start a worker thread whenever a task is queued while none is running.
+   */
+  void start(Context context) {
+    this.context = context.getApplicationContext();
+
+    final CrashReportTaskQueue queue = CrashReportTaskQueue.getInstance();
+    // Lets tasks overflowing the queue be stored in the application cache.
+    queue.setSpillDirectory(this.context.getCacheDir());
+    if (isJournalEnabled(this.context)) {
+      final TaskJournal journal = TaskJournal.open(this.context.getCacheDir());
+      if (journal != null) {
+        // Taken before this process journals anything.
+        replayedEvents = journal.replay();
+        replayedSessionStart = journal.getSessionStart();
+        replayedSessionEnd = journal.getSessionEnd();
+        SessionLifecycleProcessor.getInstance().setOnSessionChangedListener(
+            new SessionLifecycleProcessor.OnSessionChangedListener() {
+              @Override
+              public void onSessionChanged(long sessionStart, long sessionEnd) {
+                journal.saveSession(sessionStart, sessionEnd);
+              }
+            });
+        queue.setJournal(journal);
+      }
+    }
+    queue.setConsumerLauncher(new Runnable() {
+      @Override
+      public void run() {
+        // Starts an SDK owned thread even from the main thread, creating it costs far less than the task it runs.
+        startWorker(queue);
+      }
+    });
+  }
+
+  /**
+   * Queues the restoration of the session left in the task journal by the previous process, along with its lifecycle
+   * events which were not processed. It is served before lifecycle events, on the worker thread like them. Only
+   * called once the config server enabled the SDK, before lifecycle events are queued.
+   */
+  void replayJournal() {
+    List<CrashReportTask> events = replayedEvents;
+    replayedEvents = Collections.emptyList();
+    if (replayedSessionStart != 0 || !events.isEmpty()) {
+      CrashReportTaskQueue.getInstance()
+          .offer(new RestoreSessionTask(replayedSessionStart, replayedSessionEnd, events));
+    }
+    replayedSessionStart = 0;
+    replayedSessionEnd = 0;
+  }
+
+  /**
+   * Sets how long the worker thread waits for a new task before terminating.
+   * Ignores a timeout which is not positive.
+   */
+  void setIdleTimeout(long millis) {
+    if (millis <= 0) {
+      Log.e(TAG, "Invalid worker idle timeout: " + millis);
+      return;
+    }
+    idleTimeoutMillis = millis;
+  }
+
+  /**
+   * Reads whether the host app enabled the task journal in its manifest.
+   */
+  private static boolean isJournalEnabled(Context context) {
+    try {
+      Bundle metaData = context
+          .getPackageManager()
+          .getApplicationInfo(
+              context.getPackageName(),
+              PackageManager.GET_META_DATA)
+          .metaData;
+      return metaData != null && metaData.getBoolean(CrashReportConstants.ENABLE_TASK_JOURNAL, false);
+    } catch (PackageManager.NameNotFoundException e) {
+      Log.e(TAG, e.getMessage());
+    }
+
+    return false;
+  }
+
+  private void startWorker(final CrashReportTaskQueue queue) {
+    Thread crashReportingSdkThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        boolean released = false;
+
+        try {
+          while (!released) {
+            CrashReportTask task = queue.poll(idleTimeoutMillis, TimeUnit.MILLISECONDS);
+
+            if (task != null) {
+              dispatcher.dispatch(context, task);
+            } else {
+              released = queue.releaseConsumer();
+            }
+          }
+        } finally {
+          // Replaces a worker dying on an exception, or lets the next enqueue start one.
+          if (!released && !queue.releaseConsumer()) {
+            startWorker(queue);
+          }
+        }
+      }
+    }, "CrashReporting-" + threadCount.incrementAndGet());
+
+    // Set handler to catch exceptions thrown by the SDK.
+    crashReportingSdkThread.setUncaughtExceptionHandler(new CrashReportingExceptionHandler());
+    crashReportingSdkThread.start();
+  }
+}
@@ -0,0 +1,134 @@
+package com.rakuten.tech.mobile.crash;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Sends the requests of the SDK to the Crash Report servers. The default transport uses
+ * {@link java.net.HttpURLConnection}; host apps may install their own with {@link CrashReport#setTransport},
+ * for instance to share the connection pool of their HTTP client or to use HTTP/2.
+ *
+ * Transports are called on SDK upload threads, possibly concurrently, and may block until the response is read.
+ */
+public interface Transport {
+
+  /**
+   * Sends a POST request and reads its response.
+   *
+   * @throws IOException if no response could be read. The request may then be sent again later.
+   */
+  @NonNull
+  Response post(@NonNull Request request) throws IOException;
+
+  /**
+   * Request built by the SDK. The body is written on demand so it can be streamed.
+   */
+  abstract class Request {
+
+    private final AsyncHttpPost.CrashServerURL url;
+    private final Map<String, String> headers;
+    private final int timeoutMillis;
+    private final int compressionMinSize;
+    private final int maxResponseSize;
+
+    Request(AsyncHttpPost.CrashServerURL url, Map<String, String> headers, int timeoutMillis,
+        int compressionMinSize, int maxResponseSize) {
+      this.url = url;
+      this.headers = Collections.unmodifiableMap(headers);
+      this.timeoutMillis = timeoutMillis;
+      this.compressionMinSize = compressionMinSize;
+      this.maxResponseSize = maxResponseSize;
+    }
+
+    @NonNull
+    public URL getUrl() {
+      return url.getURL();
+    }
+
+    AsyncHttpPost.CrashServerURL getServerUrl() {
+      return url;
+    }
+
+    /**
+     * @return headers to send, including the content type of the body.
+     */
+    @NonNull
+    public Map<String, String> getHeaders() {
+      return headers;
+    }
+
+    /**
+     * @return connect and read timeout in milliseconds.
+     */
+    public int getTimeoutMillis() {
+      return timeoutMillis;
+    }
+
+    /**
+     * @return size in bytes from which the body should be gzip compressed, negative if the server does not accept
+     * compressed bodies. Transports may send any body uncompressed.
+     */
+    public int getCompressionMinSize() {
+      return compressionMinSize;
+    }
+
+    /**
+     * @return size in bytes above which the response body should not be read.
+     */
+    public int getMaxResponseSize() {
+      return maxResponseSize;
+    }
+
+    /**
+     * Writes the body to the given stream, without closing it.
+     */
+    public abstract void writeBody(@NonNull OutputStream stream) throws IOException;
+  }
+
+  /**
+   * Response read by a transport.
+   */
+  final class Response {
+
+    private final int statusCode;
+    private final String body;
+    private final Map<String, String> headers;
+
+    /**
+     * @param body Response body, or null if it could not be read or was too large.
+     * @param headers Response headers. Only {@code Retry-After} is read by the SDK.
+     */
+    public Response(int statusCode, @Nullable String body, @NonNull Map<String, String> headers) {
+      this.statusCode = statusCode;
+      this.body = body;
+      this.headers = headers;
+    }
+
+    public int getStatusCode() {
+      return statusCode;
+    }
+
+    @Nullable
+    public String getBody() {
+      return body;
+    }
+
+    /**
+     * @return value of the header, matching its name regardless of case, or null if there is none.
+     */
+    @Nullable
+    public String getHeader(@NonNull String name) {
+      for (Map.Entry<String, String> header : headers.entrySet()) {
+        if (name.equalsIgnoreCase(header.getKey())) {
+          return header.getValue();
+        }
+      }
+      return null;
+    }
+  }
+}
@@ -0,0 +1,117 @@
+package com.rakuten.tech.mobile.crash;
+
+import android.os.Process;
+import android.support.annotation.NonNull;
+import com.rakuten.tech.mobile.crash.tasks.TaskPriority;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded executor running network uploads off the {@link TaskWorker} thread, so in-memory tasks never wait
+ * behind a socket. Uploads are served by priority, then in submission order.
+ * Its thread count is the limit of requests in flight.
+ */
+class UploadExecutor {
+
+  private static final UploadExecutor INSTANCE = new UploadExecutor();
+  private static final int MAX_THREADS = 2;
+  private static final int MAX_PENDING = 16;
+  private static final long KEEP_ALIVE_SECONDS = 30;
+  private static final long FULL_RETRY_DELAY_MILLIS = 1000;
+  private final AtomicLong submissionCount = new AtomicLong();
+  private final ThreadPoolExecutor executor;
+  // Holds delayed uploads until they are due, then hands them to the executor.
+  private final ScheduledThreadPoolExecutor scheduler;
+
+  private UploadExecutor() {
+    UploadThreadFactory threadFactory = new UploadThreadFactory();
+    executor = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+        new PriorityBlockingQueue<Runnable>(), threadFactory);
+    executor.allowCoreThreadTimeOut(true);
+    scheduler = new ScheduledThreadPoolExecutor(1, threadFactory);
+    scheduler.setKeepAliveTime(KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+    scheduler.allowCoreThreadTimeOut(true);
+  }
+
+  static UploadExecutor getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Schedules an upload. When too many uploads are pending, it is scheduled again after a delay rather than dropped,
+   * and it never runs on the calling thread, which may be the main thread or the scheduler of delayed uploads.
+   */
+  void execute(@NonNull TaskPriority priority, @NonNull Runnable upload) {
+    if (executor.getQueue().size() >= MAX_PENDING) {
+      executeLater(priority, upload, FULL_RETRY_DELAY_MILLIS);
+      return;
+    }
+
+    executor.execute(new PrioritizedUpload(priority, submissionCount.getAndIncrement(), upload));
+  }
+
+  /**
+   * Schedules an upload once the given delay elapsed.
+   */
+  void executeLater(@NonNull final TaskPriority priority, @NonNull final Runnable upload, long delayMillis) {
+    scheduler.schedule(new Runnable() {
+      @Override
+      public void run() {
+        execute(priority, upload);
+      }
+    }, delayMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Upload ordered by priority, then by submission order.
+   */
+  private static class PrioritizedUpload implements Runnable, Comparable<PrioritizedUpload> {
+
+    private final TaskPriority priority;
+    private final long sequence;
+    private final Runnable upload;
+
+    PrioritizedUpload(TaskPriority priority, long sequence, Runnable upload) {
+      this.priority = priority;
+      this.sequence = sequence;
+      this.upload = upload;
+    }
+
+    @Override
+    public void run() {
+      upload.run();
+    }
+
+    @Override
+    public int compareTo(@NonNull PrioritizedUpload other) {
+      int byPriority = priority.compareTo(other.priority);
+      return byPriority != 0 ? byPriority : (sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1));
+    }
+  }
+
+  /**
+   * Creates background priority threads whose exceptions do not crash the host app.
+   */
+  private static class UploadThreadFactory implements ThreadFactory {
+
+    private final AtomicInteger threadCount = new AtomicInteger();
+
+    @Override
+    public Thread newThread(@NonNull final Runnable runnable) {
+      Thread thread = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+          runnable.run();
+        }
+      }, "CrashReporting-Upload-" + threadCount.incrementAndGet());
+      thread.setUncaughtExceptionHandler(new CrashReportingExceptionHandler());
+      return thread;
+    }
+  }
+}
@@ -0,0 +1,179 @@
+package com.rakuten.tech.mobile.crash;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkInfo;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.support.annotation.VisibleForTesting;
+import android.telephony.TelephonyManager;
+
+/**
+ * Decides whether cached sessions are sent now or deferred until network and power conditions improve.
+ * Sessions holding a crash are always sent right away. Crash-free sessions wait for a connection which is either
+ * unmetered or fast enough, and for the battery not to be low unless charging. No deferral lasts longer than the
+ * maximum deferral, after which sessions are sent whatever the conditions.
+ */
+public final class UploadPolicy {
+
+  /**
+   * Defers crash-free sessions for up to a day, while on 2G or 3G mobile data or below 15% of battery.
+   */
+  public static final UploadPolicy DEFAULT = new UploadPolicy(24 * 60 * 60 * 1000, 2000, 15);
+
+  private final long maxDeferralMillis;
+  private final int minMeteredBandwidthKbps;
+  private final int minBatteryPercent;
+
+  /**
+   * @param maxDeferralMillis longest time crash-free sessions are deferred.
+   * @param minMeteredBandwidthKbps estimated bandwidth from which crash-free sessions are sent on metered networks.
+   * @param minBatteryPercent battery level below which crash-free sessions are deferred while not charging.
+   */
+  public UploadPolicy(long maxDeferralMillis, int minMeteredBandwidthKbps, int minBatteryPercent) {
+    this.maxDeferralMillis = maxDeferralMillis;
+    this.minMeteredBandwidthKbps = minMeteredBandwidthKbps;
+    this.minBatteryPercent = minBatteryPercent;
+  }
+
+  public long getMaxDeferralMillis() {
+    return maxDeferralMillis;
+  }
+
+  public int getMinMeteredBandwidthKbps() {
+    return minMeteredBandwidthKbps;
+  }
+
+  public int getMinBatteryPercent() {
+    return minBatteryPercent;
+  }
+
+  /**
+   * @param conditions current network and power conditions.
+   * @param hasCrash whether the sessions to send hold a crash.
+   * @param deferredMillis time since sessions were first deferred, 0 if they were not.
+   * @return whether the sessions are sent now.
+   */
+  public boolean shouldUpload(Conditions conditions, boolean hasCrash, long deferredMillis) {
+    if (hasCrash || deferredMillis >= maxDeferralMillis) {
+      return true;
+    }
+    if (!conditions.connected) {
+      return false;
+    }
+    if (!conditions.charging && conditions.batteryPercent >= 0 && conditions.batteryPercent < minBatteryPercent) {
+      return false;
+    }
+
+    // An unknown bandwidth is assumed to be sufficient.
+    return !conditions.metered || conditions.bandwidthKbps < 0
+        || conditions.bandwidthKbps >= minMeteredBandwidthKbps;
+  }
+
+  /**
+   * Network and power conditions of the device at a given time.
+   */
+  public static final class Conditions {
+
+    private final boolean connected;
+    private final boolean metered;
+    private final int bandwidthKbps;
+    private final int batteryPercent;
+    private final boolean charging;
+
+    /**
+     * @param bandwidthKbps estimated downstream bandwidth, or -1 if unknown.
+     * @param batteryPercent battery level, or -1 if unknown.
+     */
+    @VisibleForTesting
+    Conditions(boolean connected, boolean metered, int bandwidthKbps, int batteryPercent, boolean charging) {
+      this.connected = connected;
+      this.metered = metered;
+      this.bandwidthKbps = bandwidthKbps;
+      this.batteryPercent = batteryPercent;
+      this.charging = charging;
+    }
+
+    /**
+     * Reads the current conditions of the device.
+     */
+    public static Conditions read(Context context) {
+      ConnectivityManager connectivityManager =
+          (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+      NetworkInfo networkInfo = connectivityManager.getActiveNetworkInfo();
+      boolean connected = networkInfo != null && networkInfo.isConnected();
+      boolean metered;
+      if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+        metered = connectivityManager.isActiveNetworkMetered();
+      } else {
+        metered = networkInfo != null && networkInfo.getType() == ConnectivityManager.TYPE_MOBILE;
+      }
+
+      // Reads the last battery broadcast without registering a receiver.
+      Intent battery = context.getApplicationContext()
+          .registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+      int batteryPercent = -1;
+      boolean charging = false;
+      if (battery != null) {
+        int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+        int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+        if (level >= 0 && scale > 0) {
+          batteryPercent = level * 100 / scale;
+        }
+        charging = battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+      }
+
+      return new Conditions(connected, metered,
+          connected ? estimateBandwidthKbps(connectivityManager, networkInfo) : -1, batteryPercent, charging);
+    }
+
+    /**
+     * Reads the bandwidth estimated by the system, or derives it from the mobile network generation on older
+     * versions.
+     *
+     * @return downstream bandwidth in kbps, or -1 if unknown.
+     */
+    private static int estimateBandwidthKbps(ConnectivityManager connectivityManager, NetworkInfo networkInfo) {
+      if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+        Network network = connectivityManager.getActiveNetwork();
+        NetworkCapabilities capabilities =
+            network != null ? connectivityManager.getNetworkCapabilities(network) : null;
+        if (capabilities != null && capabilities.getLinkDownstreamBandwidthKbps() > 0) {
+          return capabilities.getLinkDownstreamBandwidthKbps();
+        }
+      }
+
+      if (networkInfo.getType() != ConnectivityManager.TYPE_MOBILE) {
+        return -1;
+      }
+
+      switch (networkInfo.getSubtype()) {
+        case TelephonyManager.NETWORK_TYPE_GPRS:
+        case TelephonyManager.NETWORK_TYPE_EDGE:
+        case TelephonyManager.NETWORK_TYPE_CDMA:
+        case TelephonyManager.NETWORK_TYPE_1xRTT:
+        case TelephonyManager.NETWORK_TYPE_IDEN:
+          return 100;
+        case TelephonyManager.NETWORK_TYPE_UMTS:
+        case TelephonyManager.NETWORK_TYPE_EVDO_0:
+        case TelephonyManager.NETWORK_TYPE_EVDO_A:
+        case TelephonyManager.NETWORK_TYPE_EVDO_B:
+        case TelephonyManager.NETWORK_TYPE_EHRPD:
+        case TelephonyManager.NETWORK_TYPE_HSDPA:
+        case TelephonyManager.NETWORK_TYPE_HSUPA:
+        case TelephonyManager.NETWORK_TYPE_HSPA:
+          return 1000;
+        case TelephonyManager.NETWORK_TYPE_HSPAP:
+          return 5000;
+        case TelephonyManager.NETWORK_TYPE_LTE:
+          return 10000;
+        default:
+          return -1;
+      }
+    }
+  }
+}
@@ -0,0 +1,146 @@
+package com.rakuten.tech.mobile.crash.processors;
+
+import android.content.Context;
+import android.support.annotation.Nullable;
+import android.util.Log;
+import com.rakuten.tech.mobile.crash.AsyncHttpPost;
+import com.rakuten.tech.mobile.crash.CrashReportConstants;
+import com.rakuten.tech.mobile.crash.CrashReportHttpClient;
+import com.rakuten.tech.mobile.crash.CrashReportHttpClient.ResponseCallback;
+import com.rakuten.tech.mobile.crash.RetryPolicy;
+import com.rakuten.tech.mobile.crash.tasks.CrashReportTask;
+import com.rakuten.tech.mobile.crash.tasks.TaskPriority;
+import com.rakuten.tech.mobile.crash.utils.DeviceInfoUtil;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Map;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Reports a new install event and cached lifecycles, including crashes, to the batch endpoint in a single request.
+ * The device identifiers are sent once for the whole envelope, and the server acknowledges each section with its
+ * own status code, so a section rejected by the server is sent again without the other.
+ */
+public class BatchUploadProcessor implements CrashReportProcessor {
+
+  private static final BatchUploadProcessor INSTANCE = new BatchUploadProcessor();
+  private final static String TAG = "BatchUploadProcessor";
+  private volatile String batchUrl;
+
+  private BatchUploadProcessor() {
+  }
+
+  public static BatchUploadProcessor getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Sets the batch endpoint provided by the config server.
+   *
+   * @param url null if the server does not accept batches.
+   */
+  void setBatchUrl(@Nullable String url) {
+    batchUrl = url;
+  }
+
+  /**
+   * @return true if uploads can be batched.
+   */
+  public boolean isEnabled() {
+    return batchUrl != null;
+  }
+
+  @Override
+  public void processTask(Context context, CrashReportTask task) {
+    ReportInstallEventProcessor installProcessor = ReportInstallEventProcessor.getInstance();
+    boolean newInstall = installProcessor.isNewInstall(context);
+    if (newInstall) {
+      installProcessor.setDefaultSharedPreferences(context);
+    }
+
+    LifecycleStore.Claim lifecycles = SessionLifecycleProcessor.getInstance().claimLifecycles(context);
+
+    if (newInstall || lifecycles != null) {
+      sendBatch(context, newInstall, lifecycles);
+    }
+  }
+
+  private void sendBatch(final Context context, final boolean newInstall,
+      @Nullable final LifecycleStore.Claim lifecycles) {
+
+    try {
+      Map<String, String> deviceIdentifiers = DeviceInfoUtil.getInstance().getDeviceIdentifiers(context);
+      JSONObject envelope = new JSONObject(deviceIdentifiers);
+
+      if (newInstall) {
+        JSONObject installEvent = ReportInstallEventProcessor.getInstance().createInstallEvent(context);
+        // Already part of the envelope.
+        for (String identifier : deviceIdentifiers.keySet()) {
+          installEvent.remove(identifier);
+        }
+        envelope.put(CrashReportConstants.INSTALL, installEvent);
+      }
+
+      // Sessions are streamed from the claimed lifecycle segments into the request body.
+      AsyncHttpPost.CrashServerURL url = new AsyncHttpPost.CrashServerURL(new URL(batchUrl));
+      AsyncHttpPost request = lifecycles != null
+          ? new AsyncHttpPost(url, envelope, CrashReportConstants.SESSIONS, lifecycles.lifecycles)
+          : new AsyncHttpPost(url, envelope);
+      CrashReportHttpClient.getInstance().post(TaskPriority.NORMAL, request,
+          RetryPolicy.DEFAULT, new ResponseCallback() {
+            @Override
+            public void onResponse(int statusCode, @Nullable String responseBody) {
+              onBatchSent(context, statusCode, responseBody, newInstall, lifecycles);
+            }
+          });
+      return;
+
+    } catch (JSONException e) {
+      Log.e(TAG, "Failure to create batch of events for Crash Report server.", e);
+    } catch (MalformedURLException e) {
+      Log.e(TAG, "Failure to establish a connection with the Crash Report server.", e);
+    }
+
+    // Leaves the lifecycles cached for a later flush.
+    if (lifecycles != null) {
+      SessionLifecycleProcessor.getInstance().releaseLifecyclesClaim(context, lifecycles);
+    }
+  }
+
+  private void onBatchSent(Context context, int statusCode, @Nullable String responseBody,
+      boolean newInstall, @Nullable LifecycleStore.Claim lifecycles) {
+
+    JSONObject acknowledgments = null;
+    if (statusCode == 200 && responseBody != null) {
+      try {
+        acknowledgments = new JSONObject(responseBody);
+      } catch (JSONException e) {
+        Log.e(TAG, "Failed to read batch acknowledgments from server.", e);
+      }
+    }
+
+    if (newInstall) {
+      ReportInstallEventProcessor.getInstance().onInstallEventSent(context,
+          sectionStatusCode(acknowledgments, CrashReportConstants.INSTALL, statusCode));
+    }
+    if (lifecycles != null) {
+      SessionLifecycleProcessor.getInstance().onLifecyclesClaimSent(context,
+          sectionStatusCode(acknowledgments, CrashReportConstants.SESSIONS, statusCode), lifecycles);
+    }
+  }
+
+  /**
+   * Reads the status code acknowledging a section of the batch.
+   *
+   * @return the status code of the whole batch if it failed, or a failure if the section was not acknowledged.
+   */
+  private static int sectionStatusCode(@Nullable JSONObject acknowledgments, String section, int batchStatusCode) {
+    if (acknowledgments == null) {
+      return batchStatusCode == 200 ? 500 : batchStatusCode;
+    }
+
+    JSONObject acknowledgment = acknowledgments.optJSONObject(section);
+    return acknowledgment != null ? acknowledgment.optInt(CrashReportConstants.STATUS_CODE, 500) : 500;
+  }
+}
@@ -6,16 +6,24 @@ import android.preference.PreferenceManager;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.annotation.VisibleForTesting;
+import android.util.JsonReader;
+import android.util.JsonToken;
 import android.util.Log;
 import com.rakuten.tech.mobile.crash.AsyncHttpPost;
 import com.rakuten.tech.mobile.crash.BuildConfig;
 import com.rakuten.tech.mobile.crash.CrashReportConstants;
+import com.rakuten.tech.mobile.crash.CrashReportHttpClient;
+import com.rakuten.tech.mobile.crash.CrashReportHttpClient.ResponseCallback;
+import com.rakuten.tech.mobile.crash.FlushPolicy;
+import com.rakuten.tech.mobile.crash.RetryPolicy;
 import com.rakuten.tech.mobile.crash.tasks.CrashReportTask;
 import com.rakuten.tech.mobile.crash.tasks.GetConfigTask;
+import com.rakuten.tech.mobile.crash.tasks.TaskPriority;
 import com.rakuten.tech.mobile.crash.utils.DeviceInfoUtil;
+import java.io.IOException;
+import java.io.StringReader;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.concurrent.ExecutionException;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -26,6 +34,15 @@ public class ConfigProcessor implements CrashReportProcessor {
 
   private final static String TAG = "ConfigProcessor";
   private final static ConfigProcessor INSTANCE = new ConfigProcessor();
+  // The SDK waits for the config to start, so it is retried quickly and gives up early.
+  private final static RetryPolicy CONFIG_RETRY_POLICY = new RetryPolicy(3, 1000, 30000);
+  // Bounds of the flush thresholds sent by the server, so sessions are neither flushed one by one nor held for days.
+  private static final int MIN_FLUSH_RECORDS = 5;
+  private static final int MAX_FLUSH_RECORDS = 1000;
+  private static final long MIN_FLUSH_BYTES = 4 * 1024;
+  private static final long MAX_FLUSH_BYTES = 1024 * 1024;
+  private static final long MIN_FLUSH_AGE_MILLIS = 60 * 60 * 1000;
+  private static final long MAX_FLUSH_AGE_MILLIS = 7 * 24 * 60 * 60 * 1000L;
 
   @VisibleForTesting
   ConfigProcessor() {
@@ -37,7 +54,7 @@ public class ConfigProcessor implements CrashReportProcessor {
 
   @Override
   public void processTask(Context context, CrashReportTask task) {
-    updateHostConfig(context, getServerConfig(context), ((GetConfigTask) task).getCallback());
+    requestServerConfig(context, ((GetConfigTask) task).getCallback());
   }
 
   /**
@@ -98,6 +115,7 @@ public class ConfigProcessor implements CrashReportProcessor {
 
       String reportInstallsUrl = null;
       String reportSessionsUrl = null;
+      String reportBatchUrl = null;
 
       if (isEnabled) {
         // Set crash reporting endpoints in memory.
@@ -108,8 +126,17 @@ public class ConfigProcessor implements CrashReportProcessor {
         reportSessionsUrl = serverConfig
             .getJSONObject(CrashReportConstants.ENDPOINTS)
             .getString(CrashReportConstants.SESSIONS);
+
+        // Optional, only set if the server accepts batches.
+        reportBatchUrl = serverConfig
+            .getJSONObject(CrashReportConstants.ENDPOINTS)
+            .optString(CrashReportConstants.BATCH, null);
       }
+      BatchUploadProcessor.getInstance().setBatchUrl(reportBatchUrl);
 
+      updateCompression(serverConfig);
+      updateEncoding(serverConfig);
+      updateFlushPolicy(serverConfig);
       callback.onSuccess(context, isEnabled, reportInstallsUrl, reportSessionsUrl);
 
     } catch (JSONException e) {
@@ -117,6 +144,66 @@ public class ConfigProcessor implements CrashReportProcessor {
     }
   }
 
+  /**
+   * Compresses request bodies only if the server accepts gzip encoded requests.
+   */
+  private void updateCompression(JSONObject serverConfig) {
+    int minSize = -1;
+
+    if (CrashReportConstants.GZIP.equals(serverConfig.optString(CrashReportConstants.COMPRESSION))) {
+      minSize = serverConfig.optInt(CrashReportConstants.COMPRESSION_MIN_SIZE,
+          CrashReportConstants.DEFAULT_COMPRESSION_MIN_SIZE);
+    }
+
+    CrashReportHttpClient.getInstance().setCompressionMinSize(minSize);
+  }
+
+  /**
+   * Encodes request bodies as CBOR only if the server accepts them, falling back to JSON otherwise.
+   */
+  private void updateEncoding(JSONObject serverConfig) {
+    CrashReportHttpClient.getInstance().setCborEnabled(
+        CrashReportConstants.CBOR.equals(serverConfig.optString(CrashReportConstants.ENCODING)));
+  }
+
+  /**
+   * Applies the flush thresholds sent by the server over those set by the app, clamped to sensible bounds.
+   * Thresholds the server does not send are left unset, so they follow the value set by the app.
+   */
+  private void updateFlushPolicy(JSONObject serverConfig) {
+    SessionLifecycleProcessor processor = SessionLifecycleProcessor.getInstance();
+
+    if (!serverConfig.has(CrashReportConstants.FLUSH_MAX_RECORDS)
+        && !serverConfig.has(CrashReportConstants.FLUSH_MAX_BYTES)
+        && !serverConfig.has(CrashReportConstants.FLUSH_MAX_AGE_MILLIS)) {
+      processor.setServerFlushPolicy(null);
+      return;
+    }
+
+    processor.setServerFlushPolicy(new FlushPolicy(
+        (int) readFlushThreshold(serverConfig, CrashReportConstants.FLUSH_MAX_RECORDS,
+            MIN_FLUSH_RECORDS, MAX_FLUSH_RECORDS),
+        readFlushThreshold(serverConfig, CrashReportConstants.FLUSH_MAX_BYTES, MIN_FLUSH_BYTES, MAX_FLUSH_BYTES),
+        readFlushThreshold(serverConfig, CrashReportConstants.FLUSH_MAX_AGE_MILLIS,
+            MIN_FLUSH_AGE_MILLIS, MAX_FLUSH_AGE_MILLIS)));
+  }
+
+  /**
+   * @return threshold sent by the server clamped to the given bounds, or -1 if it was not sent as a number.
+   */
+  private static long readFlushThreshold(JSONObject serverConfig, String key, long min, long max) {
+    if (!(serverConfig.opt(key) instanceof Number)) {
+      return -1;
+    }
+
+    long value = serverConfig.optLong(key);
+    if (value < min || value > max) {
+      Log.w(TAG, "Flush threshold " + key + " sent by server is out of range: " + value);
+      return Math.max(min, Math.min(max, value));
+    }
+    return value;
+  }
+
   @SuppressWarnings("BooleanMethodIsAlwaysInverted")
   private boolean hasAll(@Nullable JSONObject json, @NonNull String... keys) {
     if(json == null) {
@@ -131,11 +218,10 @@ public class ConfigProcessor implements CrashReportProcessor {
   }
 
   /**
-   * Retrieves SDK configurations from crash report server.
+   * Retrieves SDK configurations from crash report server, then updates crash reporting with them.
    */
-  @Nullable
-  private JSONObject getServerConfig(Context context) {
-    JSONObject deviceIdentifiers = new JSONObject(DeviceInfoUtil
+  private void requestServerConfig(final Context context, final OnConfigSuccessCallback callback) {
+    final JSONObject deviceIdentifiers = new JSONObject(DeviceInfoUtil
         .getInstance().getDeviceIdentifiers(context));
 
     try {
@@ -149,31 +235,135 @@ public class ConfigProcessor implements CrashReportProcessor {
           new AsyncHttpPost.CrashServerURL(new URL(BuildConfig.CR_CONFIG));
       AsyncHttpPost request = new AsyncHttpPost(url, deviceIdentifiers);
 
-      // Checks for the status code of the post request.
-      if (request.execute().get() == 200) {
-
-        PreferenceManager.getDefaultSharedPreferences(context).edit()
-            .remove(CrashReportConstants.FAILED_INIT).apply();
-
-        return new JSONObject(request.getServerMessage())
-            .getJSONObject(CrashReportConstants.DATA);
-      } else {
-        // Set flag indicating a failure to initiate crash report SDK.
-        PreferenceManager.getDefaultSharedPreferences(context).edit()
-            .putBoolean(CrashReportConstants.FAILED_INIT, true).apply();
-      }
+      CrashReportHttpClient.getInstance().post(TaskPriority.HIGH, request, CONFIG_RETRY_POLICY,
+          new ResponseCallback() {
+            @Override
+            public void onResponse(int statusCode, @Nullable String responseBody) {
+              updateHostConfig(context,
+                  readServerConfig(context, statusCode, responseBody, deviceIdentifiers), callback);
+            }
+          });
+      return;
 
     } catch (JSONException e) {
       Log.e(TAG, "Failed to create a JSONObject with server configurations", e);
     } catch (MalformedURLException e) {
       Log.e(TAG, "Failure to establish a connection with the Config server.", e);
-    } catch (InterruptedException e) {
-      Log.e(TAG, "InterruptedException while connecting with the Config server.", e);
-    } catch (ExecutionException e) {
-      Log.e(TAG, "Failed to connect with the Config server.", e);
     }
 
-    return deviceIdentifiers;
+    updateHostConfig(context, deviceIdentifiers, callback);
+  }
+
+  /**
+   * Reads SDK configurations from the config server response.
+   *
+   * @return configurations sent by the server, or the request body if the server could not be reached.
+   */
+  private JSONObject readServerConfig(Context context, int statusCode,
+      @Nullable String responseBody, JSONObject requestBody) {
+
+    // Checks for the status code of the post request.
+    if (statusCode == 200 && responseBody != null) {
+      PreferenceManager.getDefaultSharedPreferences(context).edit()
+          .remove(CrashReportConstants.FAILED_INIT).apply();
+
+      try {
+        JSONObject serverConfig = parseServerConfig(responseBody);
+        if (serverConfig != null) {
+          return serverConfig;
+        }
+        Log.e(TAG, "Server configurations are missing from the config server response.");
+      } catch (IOException e) {
+        Log.e(TAG, "Failed to read server configurations", e);
+      } catch (IllegalStateException e) {
+        Log.e(TAG, "Failed to read server configurations", e);
+      } catch (NumberFormatException e) {
+        Log.e(TAG, "Failed to read server configurations", e);
+      } catch (JSONException e) {
+        Log.e(TAG, "Failed to create a JSONObject with server configurations", e);
+      }
+    } else {
+      // Set flag indicating a failure to initiate crash report SDK.
+      PreferenceManager.getDefaultSharedPreferences(context).edit()
+          .putBoolean(CrashReportConstants.FAILED_INIT, true).apply();
+    }
+
+    return requestBody;
+  }
+
+  /**
+   * Streams through the config server response, keeping only the configurations used by
+   * {@link #updateHostConfig}. Other fields are skipped without being built.
+   *
+   * @return configurations held by the {@code data} field, or null if there is none.
+   */
+  @VisibleForTesting
+  @Nullable
+  static JSONObject parseServerConfig(String responseBody) throws IOException, JSONException {
+    JsonReader reader = new JsonReader(new StringReader(responseBody));
+    try {
+      reader.beginObject();
+      while (reader.hasNext()) {
+        if (CrashReportConstants.DATA.equals(reader.nextName()) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+          return readData(reader);
+        }
+        reader.skipValue();
+      }
+    } finally {
+      reader.close();
+    }
+
+    return null;
+  }
+
+  private static JSONObject readData(JsonReader reader) throws IOException, JSONException {
+    JSONObject serverConfig = new JSONObject();
+
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      JsonToken token = reader.peek();
+
+      if (token == JsonToken.BOOLEAN && (CrashReportConstants.ENABLED.equals(name)
+          || CrashReportConstants.STICKY.equals(name) || CrashReportConstants.OVERRIDE.equals(name))) {
+        serverConfig.put(name, reader.nextBoolean());
+      } else if (token == JsonToken.BEGIN_OBJECT && CrashReportConstants.ENDPOINTS.equals(name)) {
+        serverConfig.put(name, readEndpoints(reader));
+      } else if (token == JsonToken.STRING && (CrashReportConstants.COMPRESSION.equals(name)
+          || CrashReportConstants.ENCODING.equals(name))) {
+        serverConfig.put(name, reader.nextString());
+      } else if (token == JsonToken.NUMBER && (CrashReportConstants.COMPRESSION_MIN_SIZE.equals(name)
+          || CrashReportConstants.FLUSH_MAX_RECORDS.equals(name))) {
+        serverConfig.put(name, reader.nextInt());
+      } else if (token == JsonToken.NUMBER && (CrashReportConstants.FLUSH_MAX_BYTES.equals(name)
+          || CrashReportConstants.FLUSH_MAX_AGE_MILLIS.equals(name))) {
+        serverConfig.put(name, reader.nextLong());
+      } else {
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
+
+    return serverConfig;
+  }
+
+  private static JSONObject readEndpoints(JsonReader reader) throws IOException, JSONException {
+    JSONObject endpoints = new JSONObject();
+
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+
+      if (reader.peek() == JsonToken.STRING && (CrashReportConstants.INSTALL.equals(name)
+          || CrashReportConstants.SESSIONS.equals(name) || CrashReportConstants.BATCH.equals(name))) {
+        endpoints.put(name, reader.nextString());
+      } else {
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
+
+    return endpoints;
   }
 
   /**
@@ -0,0 +1,192 @@
+package com.rakuten.tech.mobile.crash.processors;
+
+import android.support.annotation.Nullable;
+import android.util.Log;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Memory-mapped file reserved at start up, holding the essentials of a crash: the session times and the stack trace
+ * of the throwable. Writing a crash only copies characters into the mapped file, so it works when the heap is
+ * exhausted, such as after an {@link OutOfMemoryError}, where building a full lifecycle fails. Mapped pages reach the
+ * file even if the process dies right after, and the crash is turned into a lifecycle on the next launch.
+ *
+ * The file starts with a magic number and a state, followed by the session times, the number of characters of the
+ * stack trace and its characters.
+ */
+class CrashSlot {
+
+  private final static String TAG = "CrashSlot";
+  private static final int MAGIC = 0x43525348;
+  private static final int STATE_EMPTY = 0;
+  private static final int STATE_COMMITTED = 1;
+  private static final int STATE_OFFSET = 4;
+  private static final int FG_OFFSET = 8;
+  private static final int BG_OFFSET = 16;
+  private static final int LENGTH_OFFSET = 24;
+  private static final int TEXT_OFFSET = 28;
+  // Same limit as stack traces of lifecycles.
+  private static final int MAX_CHARS = 5000;
+  static final int SIZE = TEXT_OFFSET + 2 * MAX_CHARS;
+  // Guards against cyclic causes.
+  private static final int MAX_CAUSES = 8;
+  private final MappedByteBuffer buffer;
+  // Pre-sized for the digits of line numbers.
+  private final char[] digits = new char[10];
+  private int textLength;
+
+  private CrashSlot(MappedByteBuffer buffer) {
+    this.buffer = buffer;
+  }
+
+  /**
+   * Maps the slot held by the given file, creating it if needed. A file of another format is reset.
+   *
+   * @return null if the file could not be mapped.
+   */
+  @Nullable
+  static CrashSlot open(File file) {
+    try {
+      RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+      try {
+        // The mapping stays valid once the file is closed.
+        MappedByteBuffer buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, SIZE);
+        if (buffer.getInt(0) != MAGIC) {
+          buffer.putInt(0, MAGIC);
+          buffer.putInt(STATE_OFFSET, STATE_EMPTY);
+        }
+        return new CrashSlot(buffer);
+      } finally {
+        randomAccessFile.close();
+      }
+    } catch (IOException e) {
+      Log.e(TAG, "Failure to reserve crash slot.", e);
+    }
+
+    return null;
+  }
+
+  /**
+   * Writes a crash into the slot, replacing any previous one. Nothing is allocated beyond what the throwable
+   * allocates to return its stack trace, message and causes. The crash is only readable once fully written.
+   */
+  synchronized void write(long foregroundTime, long backgroundTime, Throwable throwable) {
+    buffer.putInt(STATE_OFFSET, STATE_EMPTY);
+    buffer.putLong(FG_OFFSET, foregroundTime);
+    buffer.putLong(BG_OFFSET, backgroundTime);
+    textLength = 0;
+
+    try {
+      writeThrowable(throwable);
+    } catch (OutOfMemoryError e) {
+      // Keeps what was written so far.
+    }
+
+    buffer.putInt(LENGTH_OFFSET, textLength);
+    buffer.putInt(STATE_OFFSET, STATE_COMMITTED);
+    // Also reaches the storage device if the device shuts down.
+    buffer.force();
+  }
+
+  /**
+   * @return whether the slot holds a crash which was not turned into a lifecycle yet.
+   */
+  boolean isCommitted() {
+    return buffer.getInt(STATE_OFFSET) == STATE_COMMITTED;
+  }
+
+  long getForegroundTime() {
+    return buffer.getLong(FG_OFFSET);
+  }
+
+  long getBackgroundTime() {
+    return buffer.getLong(BG_OFFSET);
+  }
+
+  String getStackTrace() {
+    int length = Math.max(0, Math.min(buffer.getInt(LENGTH_OFFSET), MAX_CHARS));
+    char[] text = new char[length];
+    for (int i = 0; i < length; i++) {
+      text[i] = buffer.getChar(TEXT_OFFSET + 2 * i);
+    }
+    return new String(text);
+  }
+
+  /**
+   * Empties the slot once its crash was stored as a lifecycle.
+   */
+  synchronized void clear() {
+    buffer.putInt(STATE_OFFSET, STATE_EMPTY);
+  }
+
+  /**
+   * Writes the throwable and its causes in the format of {@link Throwable#printStackTrace()}.
+   */
+  private void writeThrowable(Throwable throwable) {
+    Throwable current = throwable;
+    for (int depth = 0; current != null && depth < MAX_CAUSES && textLength < MAX_CHARS; depth++) {
+      if (depth > 0) {
+        writeText("Caused by: ");
+      }
+      writeText(current.getClass().getName());
+      String message = current.getMessage();
+      if (message != null) {
+        writeText(": ");
+        writeText(message);
+      }
+      writeChar('\n');
+
+      for (StackTraceElement element : current.getStackTrace()) {
+        if (textLength >= MAX_CHARS) {
+          return;
+        }
+        writeText("\tat ");
+        writeText(element.getClassName());
+        writeChar('.');
+        writeText(element.getMethodName());
+        writeChar('(');
+        if (element.isNativeMethod()) {
+          writeText("Native Method");
+        } else if (element.getFileName() == null) {
+          writeText("Unknown Source");
+        } else {
+          writeText(element.getFileName());
+          if (element.getLineNumber() >= 0) {
+            writeChar(':');
+            writeNumber(element.getLineNumber());
+          }
+        }
+        writeText(")\n");
+      }
+
+      current = current.getCause() != current ? current.getCause() : null;
+    }
+  }
+
+  private void writeText(String text) {
+    for (int i = 0; i < text.length(); i++) {
+      writeChar(text.charAt(i));
+    }
+  }
+
+  private void writeNumber(int number) {
+    int count = 0;
+    do {
+      digits[count++] = (char) ('0' + number % 10);
+      number /= 10;
+    } while (number > 0);
+
+    while (count > 0) {
+      writeChar(digits[--count]);
+    }
+  }
+
+  private void writeChar(char c) {
+    if (textLength < MAX_CHARS) {
+      buffer.putChar(TEXT_OFFSET + 2 * textLength++, c);
+    }
+  }
+}
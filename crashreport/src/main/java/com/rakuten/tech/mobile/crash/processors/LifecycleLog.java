@@ -0,0 +1,287 @@
+package com.rakuten.tech.mobile.crash.processors;
+
+import android.support.annotation.Nullable;
+import android.util.Log;
+import com.rakuten.tech.mobile.crash.AsyncHttpPost;
+import com.rakuten.tech.mobile.crash.utils.CommonUtil;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Append-only log of lifecycle records. The file starts with a magic number and a format version, followed by
+ * records made of their length, the CRC32 of their content and their content, a UTF-8 encoded JSON object.
+ *
+ * Records are read one at a time, so reading never holds more than one record in memory. A record whose content
+ * does not match its checksum is skipped. A record cut short, such as by the process dying while appending it,
+ * ends the log until it is truncated.
+ *
+ * The log is not thread safe, callers must synchronize accesses.
+ */
+class LifecycleLog {
+
+  private final static String TAG = "LifecycleLog";
+  private static final int MAGIC = 0x43524c47;
+  private static final int VERSION = 1;
+  static final int HEADER_SIZE = 8;
+  private static final int RECORD_HEADER_SIZE = 8;
+  // Lifecycles holding a crash include the stack traces of all threads, larger records are corrupt.
+  private static final int MAX_RECORD_SIZE = 4 * 1024 * 1024;
+  private final File file;
+
+  /**
+   * Opens the log held by the given file, starting a new one if the file was written in another format.
+   */
+  LifecycleLog(File file) {
+    this.file = file;
+
+    if (file.length() > 0 && !hasValidHeader()) {
+      Log.w(TAG, "Discarding lifecycle log of unknown format.");
+      file.delete();
+    }
+  }
+
+  /**
+   * @return size of the log in bytes, including its header.
+   */
+  long length() {
+    return file.length();
+  }
+
+  boolean isEmpty() {
+    return file.length() <= HEADER_SIZE;
+  }
+
+  /**
+   * Appends a record at the end of the log.
+   *
+   * @param sync Whether to wait for the record to reach the storage device, so it survives the device shutting
+   *     down as well as the process dying.
+   */
+  void append(JSONObject record, boolean sync) throws IOException {
+    byte[] content = record.toString().getBytes("UTF-8");
+    boolean newLog = file.length() == 0;
+
+    // Written at once, so a record is either complete or cut short.
+    ByteBuffer buffer = ByteBuffer.allocate((newLog ? HEADER_SIZE : 0) + RECORD_HEADER_SIZE + content.length);
+    if (newLog) {
+      buffer.putInt(MAGIC).putInt(VERSION);
+    }
+    buffer.putInt(content.length).putInt(checksum(content)).put(content);
+
+    FileOutputStream outputStream = new FileOutputStream(file, true);
+    try {
+      outputStream.write(buffer.array());
+      if (sync) {
+        outputStream.getFD().sync();
+      }
+    } finally {
+      outputStream.close();
+    }
+  }
+
+  /**
+   * Opens a reader returning the records in the order they were appended.
+   */
+  Reader read() throws IOException {
+    return new Reader(new DataInputStream(new BufferedInputStream(new FileInputStream(file))));
+  }
+
+  /**
+   * Counts the records of the log by skipping over their content, without reading it.
+   */
+  int count() throws IOException {
+    if (isEmpty()) {
+      return 0;
+    }
+
+    RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+    int count = 0;
+    try {
+      long position = HEADER_SIZE;
+      while ((position = skipRecord(randomAccessFile, position)) >= 0) {
+        count++;
+      }
+    } finally {
+      randomAccessFile.close();
+    }
+
+    return count;
+  }
+
+  /**
+   * Cuts off the end of the log following its last complete record, such as a record cut short by the process dying
+   * while appending it, so records appended next are read after the complete ones.
+   */
+  void truncateIncompleteRecord() throws IOException {
+    if (isEmpty()) {
+      return;
+    }
+
+    RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+    try {
+      long end = HEADER_SIZE;
+      long position;
+      while ((position = skipRecord(randomAccessFile, end)) >= 0) {
+        end = position;
+      }
+
+      if (end < randomAccessFile.length()) {
+        Log.w(TAG, "Truncating lifecycle record cut short.");
+        randomAccessFile.setLength(end);
+      }
+    } finally {
+      randomAccessFile.close();
+    }
+  }
+
+  /**
+   * Skips over the content of the record at the given position without reading it.
+   *
+   * @return position of the next record, or -1 at a corrupt length, a record cut short or the end of the log.
+   */
+  private static long skipRecord(RandomAccessFile randomAccessFile, long position) throws IOException {
+    long fileLength = randomAccessFile.length();
+    if (position + RECORD_HEADER_SIZE > fileLength) {
+      return -1;
+    }
+
+    randomAccessFile.seek(position);
+    int length = randomAccessFile.readInt();
+    if (length < 0 || length > MAX_RECORD_SIZE || position + RECORD_HEADER_SIZE + length > fileLength) {
+      return -1;
+    }
+    return position + RECORD_HEADER_SIZE + length;
+  }
+
+  /**
+   * Appends the lifecycles of a file written by previous versions of the SDK, which separated JSON objects with
+   * {@code ##}, then deletes it.
+   */
+  void migrate(File legacyFile) {
+    if (!legacyFile.exists()) {
+      return;
+    }
+
+    try {
+      String legacy = CommonUtil.INSTANCE.readInputStreamToString(new FileInputStream(legacyFile));
+      if (legacy != null) {
+        // A separator may also appear within a stack trace, in which case the object goes on in the next part.
+        String pending = null;
+        for (String part : legacy.split("##", -1)) {
+          String record = pending == null ? part : pending + "##" + part;
+          if (record.trim().isEmpty()) {
+            continue;
+          }
+          try {
+            append(new JSONObject(record), false);
+            pending = null;
+          } catch (JSONException e) {
+            pending = record;
+          }
+        }
+        if (pending != null) {
+          Log.w(TAG, "Skipping unreadable legacy lifecycles.");
+        }
+      }
+    } catch (IOException e) {
+      Log.e(TAG, "Failure to migrate legacy lifecycles.", e);
+      return;
+    }
+
+    legacyFile.delete();
+  }
+
+  private boolean hasValidHeader() {
+    try {
+      DataInputStream inputStream = new DataInputStream(new FileInputStream(file));
+      try {
+        return inputStream.readInt() == MAGIC && inputStream.readInt() == VERSION;
+      } finally {
+        inputStream.close();
+      }
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  private static int checksum(byte[] content) {
+    CRC32 crc = new CRC32();
+    crc.update(content);
+    return (int) crc.getValue();
+  }
+
+  /**
+   * Reads the records of a log one at a time.
+   */
+  static class Reader implements AsyncHttpPost.RecordReader {
+
+    private final DataInputStream inputStream;
+    private boolean ended;
+
+    private Reader(DataInputStream inputStream) {
+      this.inputStream = inputStream;
+
+      try {
+        ended = inputStream.readInt() != MAGIC || inputStream.readInt() != VERSION;
+      } catch (IOException e) {
+        ended = true;
+      }
+    }
+
+    /**
+     * @return the next readable record, or null at the end of the log.
+     */
+    @Nullable
+    @Override
+    public JSONObject next() throws IOException {
+      while (!ended) {
+        byte[] content;
+        int crc;
+
+        try {
+          int length = inputStream.readInt();
+          if (length < 0 || length > MAX_RECORD_SIZE) {
+            // Following records cannot be located.
+            Log.w(TAG, "Lifecycle log is corrupt, ignoring its remaining records.");
+            break;
+          }
+          crc = inputStream.readInt();
+          content = new byte[length];
+          inputStream.readFully(content);
+        } catch (EOFException e) {
+          // End of the log, or a record cut short.
+          break;
+        }
+
+        if (checksum(content) != crc) {
+          Log.w(TAG, "Skipping corrupt lifecycle record.");
+          continue;
+        }
+
+        try {
+          return new JSONObject(new String(content, "UTF-8"));
+        } catch (JSONException e) {
+          Log.w(TAG, "Skipping unreadable lifecycle record.", e);
+        }
+      }
+
+      ended = true;
+      return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+      inputStream.close();
+    }
+  }
+}
@@ -0,0 +1,375 @@
+package com.rakuten.tech.mobile.crash.processors;
+
+import android.support.annotation.Nullable;
+import android.util.Log;
+import com.rakuten.tech.mobile.crash.AsyncHttpPost;
+import com.rakuten.tech.mobile.crash.CrashReportConstants;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.json.JSONObject;
+
+/**
+ * Lifecycle cache split into segments, each a {@link LifecycleLog}. Lifecycles are appended to the newest
+ * segment, which is sealed once it grows too large or its lifecycles are about to be sent. Sealed segments are
+ * never written again, so they are read for sending while lifecycles keep being appended, and are deleted only once
+ * the server acknowledged them. A failed upload leaves its segments to be sent again, without resending others.
+ *
+ * The number of lifecycles waiting to be sent and the time of the oldest one are kept in memory, so flush
+ * thresholds are checked without reading the segments. A segment holding a crash has an empty marker file next to
+ * it, deleted along with the segment, so whether the lifecycles to send hold a crash survives restarts.
+ *
+ * The store is not thread safe, callers must synchronize accesses. Claimed segments may be read concurrently.
+ */
+class LifecycleStore {
+
+  private final static String TAG = "LifecycleStore";
+  private static final String SEGMENT_PREFIX = "segment-";
+  private static final String SEGMENT_SUFFIX = ".log";
+  private static final String CRASH_SUFFIX = ".crash";
+  private static final long MAX_SEGMENT_SIZE = 64 * 1024;
+  private final File directory;
+  private final Set<File> claimed = new HashSet<>();
+  private long activeSequence;
+  private LifecycleLog active;
+  private int recordCount;
+  private long oldestMillis;
+
+  /**
+   * Opens the store held by the given directory, continuing the newest segment once a record cut short at its end is
+   * truncated. A new segment is started if it cannot be truncated.
+   */
+  LifecycleStore(File directory) {
+    this.directory = directory;
+    directory.mkdirs();
+
+    List<File> segments = listSegments();
+    activeSequence = segments.isEmpty() ? 1 : sequenceOf(segments.get(segments.size() - 1));
+    active = new LifecycleLog(segmentFile(activeSequence));
+    try {
+      active.truncateIncompleteRecord();
+    } catch (IOException e) {
+      Log.e(TAG, "Failure to truncate cached lifecycles, starting a new segment.", e);
+      seal();
+    }
+
+    for (File segment : segments) {
+      countRecords(new LifecycleLog(segment));
+    }
+  }
+
+  /**
+   * Appends a lifecycle to the newest segment, starting a new one if it reached its maximum size.
+   * A lifecycle holding a crash marks its segment first.
+   */
+  void append(JSONObject lifecycle, boolean sync) throws IOException {
+    if (lifecycle.has(CrashReportConstants.CRASH_DETAILS)) {
+      File marker = crashMarkerOf(segmentFile(activeSequence));
+      if (!marker.exists() && !marker.createNewFile()) {
+        Log.e(TAG, "Failure to mark cached crash: " + marker.getName());
+      }
+    }
+    active.append(lifecycle, sync);
+    recordCount++;
+    if (oldestMillis == 0) {
+      oldestMillis = timestampOf(lifecycle);
+    }
+
+    if (active.length() >= MAX_SEGMENT_SIZE) {
+      seal();
+    }
+  }
+
+  /**
+   * Appends the lifecycles of a file in a previous format, then deletes it.
+   */
+  void migrate(File legacyFile) {
+    if (legacyFile.exists()) {
+      // The active segment was counted when the store was opened, it is counted again with the legacy lifecycles.
+      int activeCount = countOf(active);
+      recordCount -= activeCount;
+      active.migrate(legacyFile);
+      countRecords(active);
+    }
+  }
+
+  /**
+   * @return number of lifecycles which are not being sent.
+   */
+  int getRecordCount() {
+    return recordCount;
+  }
+
+  /**
+   * @return time at which the oldest lifecycle which is not being sent was cached, or 0 if there is none.
+   */
+  long getOldestMillis() {
+    return oldestMillis;
+  }
+
+  /**
+   * @return size in bytes of the segments which are not being sent.
+   */
+  long length() {
+    long length = 0;
+    for (File segment : listSegments()) {
+      if (!claimed.contains(segment)) {
+        length += segment.length();
+      }
+    }
+    return length;
+  }
+
+  /**
+   * @return whether a lifecycle which is not being sent holds a crash.
+   */
+  boolean hasCrash() {
+    for (File segment : listSegments()) {
+      if (!claimed.contains(segment) && crashMarkerOf(segment).exists()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return whether no lifecycle is waiting to be sent.
+   */
+  boolean isEmpty() {
+    for (File segment : listSegments()) {
+      if (!claimed.contains(segment) && segment.length() > LifecycleLog.HEADER_SIZE) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Seals the newest segment and claims all segments which are not being sent yet.
+   * The claim must be either acknowledged or released once the request completed.
+   *
+   * @return null if there is nothing to send.
+   */
+  @Nullable
+  Claim claim() {
+    if (!active.isEmpty()) {
+      seal();
+    }
+
+    List<File> segments = new ArrayList<>();
+    for (File segment : listSegments()) {
+      if (claimed.contains(segment) || segmentFile(activeSequence).equals(segment)) {
+        continue;
+      }
+      if (segment.length() > LifecycleLog.HEADER_SIZE) {
+        segments.add(segment);
+      } else {
+        // Left empty by a failed write.
+        segment.delete();
+        crashMarkerOf(segment).delete();
+      }
+    }
+
+    if (segments.isEmpty()) {
+      return null;
+    }
+
+    claimed.addAll(segments);
+    Claim claim = new Claim(segments, recordCount, oldestMillis);
+    recordCount = 0;
+    oldestMillis = 0;
+    return claim;
+  }
+
+  /**
+   * Deletes the claimed segments, their lifecycles having been received by the server.
+   */
+  void acknowledge(Claim claim) {
+    for (File segment : claim.segments) {
+      if (!segment.delete() && segment.exists()) {
+        Log.e(TAG, "Failure to delete sent lifecycles: " + segment.getName());
+      }
+      crashMarkerOf(segment).delete();
+    }
+    claimed.removeAll(claim.segments);
+  }
+
+  /**
+   * Keeps the claimed segments to be sent again later.
+   */
+  void release(Claim claim) {
+    claimed.removeAll(claim.segments);
+    recordCount += claim.recordCount;
+    if (oldestMillis == 0 || (claim.oldestMillis != 0 && claim.oldestMillis < oldestMillis)) {
+      oldestMillis = claim.oldestMillis;
+    }
+  }
+
+  /**
+   * @return file of a segment sorting before all those created by the store.
+   */
+  static File firstSegment(File directory) {
+    return new File(directory, SEGMENT_PREFIX + 0 + SEGMENT_SUFFIX);
+  }
+
+  private void seal() {
+    activeSequence++;
+    active = new LifecycleLog(segmentFile(activeSequence));
+  }
+
+  /**
+   * Adds the lifecycles of a segment to those waiting to be sent.
+   *
+   * @return number of lifecycles of the segment.
+   */
+  private int countRecords(LifecycleLog segment) {
+    try {
+      int count = segment.count();
+      if (count > 0 && oldestMillis == 0) {
+        LifecycleLog.Reader reader = segment.read();
+        try {
+          JSONObject first = reader.next();
+          oldestMillis = first != null ? timestampOf(first) : System.currentTimeMillis();
+        } finally {
+          reader.close();
+        }
+      }
+      recordCount += count;
+      return count;
+    } catch (IOException e) {
+      Log.e(TAG, "Failure to count cached lifecycles.", e);
+      return 0;
+    }
+  }
+
+  /**
+   * @return number of lifecycles of a segment, or 0 if it could not be read.
+   */
+  private static int countOf(LifecycleLog segment) {
+    try {
+      return segment.count();
+    } catch (IOException e) {
+      Log.e(TAG, "Failure to count cached lifecycles.", e);
+      return 0;
+    }
+  }
+
+  /**
+   * @return time at which the lifecycle ended, which is when it was cached.
+   */
+  private static long timestampOf(JSONObject lifecycle) {
+    long timestamp = lifecycle.optLong(CrashReportConstants.BG);
+    return timestamp > 0 ? timestamp : System.currentTimeMillis();
+  }
+
+  private File segmentFile(long sequence) {
+    return new File(directory, SEGMENT_PREFIX + sequence + SEGMENT_SUFFIX);
+  }
+
+  private static File crashMarkerOf(File segment) {
+    String name = segment.getName();
+    return new File(segment.getParentFile(),
+        name.substring(0, name.length() - SEGMENT_SUFFIX.length()) + CRASH_SUFFIX);
+  }
+
+  private static long sequenceOf(File segment) {
+    String name = segment.getName();
+    return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+  }
+
+  /**
+   * @return segment files from the oldest to the newest.
+   */
+  private List<File> listSegments() {
+    File[] files = directory.listFiles(new FilenameFilter() {
+      @Override
+      public boolean accept(File dir, String name) {
+        return name.matches(SEGMENT_PREFIX + "\\d+\\" + SEGMENT_SUFFIX);
+      }
+    });
+
+    List<File> segments = new ArrayList<>();
+    if (files != null) {
+      Collections.addAll(segments, files);
+    }
+    Collections.sort(segments, new Comparator<File>() {
+      @Override
+      public int compare(File first, File second) {
+        long firstSequence = sequenceOf(first);
+        long secondSequence = sequenceOf(second);
+        return firstSequence < secondSequence ? -1 : (firstSequence == secondSequence ? 0 : 1);
+      }
+    });
+    return segments;
+  }
+
+  /**
+   * Sealed segments claimed for a request, read one after the other when the request body is written.
+   */
+  static class Claim {
+
+    final List<File> segments;
+    final int recordCount;
+    final long oldestMillis;
+    final AsyncHttpPost.RecordSource lifecycles = new AsyncHttpPost.RecordSource() {
+      @Override
+      public AsyncHttpPost.RecordReader open() {
+        return new SegmentsReader(segments);
+      }
+    };
+
+    private Claim(List<File> segments, int recordCount, long oldestMillis) {
+      this.segments = Collections.unmodifiableList(new ArrayList<>(segments));
+      this.recordCount = recordCount;
+      this.oldestMillis = oldestMillis;
+    }
+  }
+
+  /**
+   * Reads the lifecycles of several segments in order.
+   */
+  private static class SegmentsReader implements AsyncHttpPost.RecordReader {
+
+    private final List<File> segments;
+    private int index = 0;
+    private LifecycleLog.Reader reader;
+
+    SegmentsReader(List<File> segments) {
+      this.segments = segments;
+    }
+
+    @Nullable
+    @Override
+    public JSONObject next() throws IOException {
+      while (true) {
+        if (reader == null) {
+          if (index >= segments.size()) {
+            return null;
+          }
+          reader = new LifecycleLog(segments.get(index++)).read();
+        }
+
+        JSONObject lifecycle = reader.next();
+        if (lifecycle != null) {
+          return lifecycle;
+        }
+        reader.close();
+        reader = null;
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (reader != null) {
+        reader.close();
+        reader = null;
+      }
+    }
+  }
+}
@@ -2,15 +2,19 @@ package com.rakuten.tech.mobile.crash.processors;
 
 import android.content.Context;
 import android.preference.PreferenceManager;
+import android.support.annotation.Nullable;
 import android.util.Log;
 import com.rakuten.tech.mobile.crash.AsyncHttpPost;
 import com.rakuten.tech.mobile.crash.CrashReport;
 import com.rakuten.tech.mobile.crash.CrashReportConstants;
+import com.rakuten.tech.mobile.crash.CrashReportHttpClient;
+import com.rakuten.tech.mobile.crash.CrashReportHttpClient.ResponseCallback;
+import com.rakuten.tech.mobile.crash.RetryPolicy;
 import com.rakuten.tech.mobile.crash.tasks.CrashReportTask;
+import com.rakuten.tech.mobile.crash.tasks.TaskPriority;
 import com.rakuten.tech.mobile.crash.utils.DeviceInfoUtil;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.concurrent.ExecutionException;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -38,45 +42,66 @@ public class ReportInstallEventProcessor implements CrashReportProcessor {
    */
   private void attemptReportInstall(Context context) {
     // Checks by shared preferences if app is newly installed on device.
-    if (PreferenceManager.getDefaultSharedPreferences(context)
-        .getBoolean(CrashReportConstants.NEW_INSTALL, true)) {
+    if (isNewInstall(context)) {
       setDefaultSharedPreferences(context);
       sendInstallEvent(context);
     }
   }
 
+  /**
+   * @return true if the app install was not reported yet.
+   */
+  boolean isNewInstall(Context context) {
+    return PreferenceManager.getDefaultSharedPreferences(context)
+        .getBoolean(CrashReportConstants.NEW_INSTALL, true);
+  }
+
   /**
    * Reports new app installation device info to the server.
    */
-  private void sendInstallEvent(Context context) {
+  private void sendInstallEvent(final Context context) {
     try {
-      JSONObject deviceInstance = new JSONObject(
-          DeviceInfoUtil.getInstance().getDeviceInfo(context));
-      deviceInstance.put(CrashReportConstants.DEVICE_INFO,
-          new JSONObject(DeviceInfoUtil.getInstance().getDeviceDetails(context)));
       AsyncHttpPost.CrashServerURL url = new AsyncHttpPost.CrashServerURL(
           new URL(CrashReport.getInstance().getInstallsUrl()));
-      // Checks for the status code of the post request.
-      if (new AsyncHttpPost(url, deviceInstance).execute().get() == 200) {
-        // Sets a flag indicating that the app is no longer new to the device.
-        PreferenceManager.getDefaultSharedPreferences(context)
-            .edit().putBoolean(CrashReportConstants.NEW_INSTALL, false).apply();
-      }
+      AsyncHttpPost request = new AsyncHttpPost(url, createInstallEvent(context));
+      CrashReportHttpClient.getInstance().post(TaskPriority.NORMAL, request, RetryPolicy.DEFAULT,
+          new ResponseCallback() {
+            @Override
+            public void onResponse(int statusCode, @Nullable String responseBody) {
+              onInstallEventSent(context, statusCode);
+            }
+          });
     } catch (JSONException e) {
       Log.e(TAG, "Error while reporting a new install event to Crash Report server.", e);
     } catch (MalformedURLException e) {
       Log.e(TAG, "Failure to establish a connection with the Crash Report server.", e);
-    } catch (InterruptedException e) {
-      Log.e(TAG, "InterruptedException while sending crash report to server.", e);
-    } catch (ExecutionException e) {
-      Log.e(TAG, "Failed to send crash report to server.", e);
+    }
+  }
+
+  /**
+   * Creates the install event holding the device identifiers, info and specs.
+   */
+  JSONObject createInstallEvent(Context context) throws JSONException {
+    JSONObject deviceInstance = new JSONObject(
+        DeviceInfoUtil.getInstance().getDeviceInfo(context));
+    deviceInstance.put(CrashReportConstants.DEVICE_INFO,
+        new JSONObject(DeviceInfoUtil.getInstance().getDeviceDetails(context)));
+    return deviceInstance;
+  }
+
+  void onInstallEventSent(Context context, int statusCode) {
+    // Checks for the status code of the post request.
+    if (statusCode == 200) {
+      // Sets a flag indicating that the app is no longer new to the device.
+      PreferenceManager.getDefaultSharedPreferences(context)
+          .edit().putBoolean(CrashReportConstants.NEW_INSTALL, false).apply();
     }
   }
 
   /**
    * Configures shared preferences to a default state for a new app.
    */
-  private void setDefaultSharedPreferences(Context context) {
+  void setDefaultSharedPreferences(Context context) {
     PreferenceManager
         .getDefaultSharedPreferences(context)
         .edit()
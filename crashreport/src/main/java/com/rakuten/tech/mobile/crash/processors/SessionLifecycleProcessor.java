@@ -2,30 +2,41 @@ package com.rakuten.tech.mobile.crash.processors;
 
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
 import android.text.TextUtils;
 import android.util.Log;
 import com.rakuten.tech.mobile.crash.ApplicationState;
 import com.rakuten.tech.mobile.crash.AsyncHttpPost;
 import com.rakuten.tech.mobile.crash.CrashReport;
 import com.rakuten.tech.mobile.crash.CrashReportConstants;
+import com.rakuten.tech.mobile.crash.CrashReportHttpClient;
+import com.rakuten.tech.mobile.crash.CrashReportHttpClient.ResponseCallback;
+import com.rakuten.tech.mobile.crash.FlushPolicy;
+import com.rakuten.tech.mobile.crash.RetryPolicy;
+import com.rakuten.tech.mobile.crash.UploadPolicy;
 import com.rakuten.tech.mobile.crash.tasks.BackgroundTask;
 import com.rakuten.tech.mobile.crash.tasks.CrashReportTask;
 import com.rakuten.tech.mobile.crash.tasks.ForegroundTask;
+import com.rakuten.tech.mobile.crash.tasks.RestoreSessionTask;
+import com.rakuten.tech.mobile.crash.tasks.TaskPriority;
 import com.rakuten.tech.mobile.crash.utils.CommonUtil;
 import com.rakuten.tech.mobile.crash.utils.CrashInfoUtil;
 import com.rakuten.tech.mobile.crash.utils.DeviceInfoUtil;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -37,7 +48,22 @@ public class SessionLifecycleProcessor implements CrashReportProcessor {
 
   private static final SessionLifecycleProcessor INSTANCE = new SessionLifecycleProcessor();
   private final static String TAG = "LifecycleProcessor";
-  private boolean isAppInFocus = false;
+  // Guards the lifecycle store, which is appended on the task processor thread while uploads run on another.
+  private final Object cacheLock = new Object();
+  private final AtomicBoolean uploadInFlight = new AtomicBoolean(false);
+  // Whether the crash slot holds a crash of the previous process which was not stored as a lifecycle yet.
+  private final AtomicBoolean crashRecoveryPending = new AtomicBoolean(false);
+  private LifecycleStore lifecycleStore;
+  private volatile FlushPolicy localFlushPolicy = FlushPolicy.DEFAULT;
+  private volatile FlushPolicy serverFlushPolicy;
+  private volatile UploadPolicy uploadPolicy = UploadPolicy.DEFAULT;
+  private volatile FlushScheduler flushScheduler;
+  // Time at which the flush ending the current deferral is scheduled, 0 if none is. Guarded by the cache lock.
+  private long scheduledFlushMillis = 0;
+  private volatile CrashSlot crashSlot;
+  private volatile OnSessionChangedListener sessionListener;
+  // Written when a lifecycle event arrives, as the events themselves may be held back before being processed.
+  private volatile boolean isAppInFocus = false;
   private long sessionStart = 0;
   private long sessionEnd = 0;
 
@@ -45,27 +71,204 @@ public class SessionLifecycleProcessor implements CrashReportProcessor {
     return INSTANCE;
   }
 
+  /**
+   * Forgets the session and the lifecycle store, which is opened again in the cache directory of the next context.
+   */
+  @VisibleForTesting
+  void reset() {
+    synchronized (cacheLock) {
+      lifecycleStore = null;
+    }
+    uploadInFlight.set(false);
+    crashSlot = null;
+    crashRecoveryPending.set(false);
+    sessionStart = 0;
+    sessionEnd = 0;
+    scheduledFlushMillis = 0;
+  }
+
+  /**
+   * Sets the flush thresholds of crash-free sessions, unless the config server sets them.
+   */
+  public void setFlushPolicy(FlushPolicy policy) {
+    localFlushPolicy = policy;
+  }
+
+  /**
+   * Sets when crash-free sessions are deferred until network and power conditions improve.
+   */
+  public void setUploadPolicy(UploadPolicy policy) {
+    uploadPolicy = policy;
+  }
+
+  /**
+   * Sets the scheduler running a flush once the maximum deferral of the upload policy expires.
+   */
+  public void setFlushScheduler(@Nullable FlushScheduler scheduler) {
+    flushScheduler = scheduler;
+  }
+
+  /**
+   * Sets the flush thresholds sent by the config server, which take precedence over the local ones.
+   *
+   * @param policy null to use the local thresholds. Thresholds which are not positive were not sent by the server,
+   *     the local ones are used instead.
+   */
+  void setServerFlushPolicy(@Nullable FlushPolicy policy) {
+    serverFlushPolicy = policy;
+  }
+
+  /**
+   * @return flush thresholds in effect, taking those the server did not send from the local ones.
+   */
+  FlushPolicy getFlushPolicy() {
+    FlushPolicy server = serverFlushPolicy;
+    FlushPolicy local = localFlushPolicy;
+    if (server == null) {
+      return local;
+    }
+
+    return new FlushPolicy(
+        server.getMaxRecords() > 0 ? server.getMaxRecords() : local.getMaxRecords(),
+        server.getMaxBytes() > 0 ? server.getMaxBytes() : local.getMaxBytes(),
+        server.getMaxAgeMillis() > 0 ? server.getMaxAgeMillis() : local.getMaxAgeMillis());
+  }
+
+  /**
+   * Sets the listener notified of the session times once a lifecycle event was processed.
+   */
+  public void setOnSessionChangedListener(@Nullable OnSessionChangedListener listener) {
+    sessionListener = listener;
+  }
+
+  /**
+   * Restores the session of the previous process from its saved times, then applies its lifecycle events which
+   * were not processed before the process died. Events already applied to the saved session are skipped. A session
+   * whose end is unknown, as the process died in foreground, is dropped. Must be called before any lifecycle event
+   * of this process is processed.
+   *
+   * @param events foreground and background events of the previous process, in the order they happened.
+   */
+  public void restoreSession(Context context, long start, long end, List<CrashReportTask> events) {
+    if (sessionStart != 0) {
+      return;
+    }
+
+    sessionStart = start;
+    sessionEnd = end;
+    for (CrashReportTask event : events) {
+      switch (event.getType()) {
+        case FOREGROUND:
+          long foregroundTime = ((ForegroundTask) event).getTimestamp();
+          if (sessionStart == 0 || (foregroundTime > sessionStart && sessionEnd >= sessionStart)) {
+            setSessionStartTime(context, foregroundTime);
+          }
+          break;
+        case BACKGROUND:
+          long backgroundTime = ((BackgroundTask) event).getTimestamp();
+          if (sessionStart != 0 && backgroundTime > sessionEnd) {
+            setSessionEndTime(backgroundTime);
+          }
+          break;
+        default:
+          break;
+      }
+    }
+
+    if (sessionEnd < sessionStart) {
+      sessionStart = 0;
+      sessionEnd = 0;
+    }
+    notifySessionChanged(sessionStart, sessionEnd);
+  }
+
+  /**
+   * Maps the crash slot written when a crash cannot be fully reported, unless it is already mapped. Only maps the
+   * file, so it is cheap enough for start up. Must be called before crashes are reported.
+   *
+   * @return whether the slot holds a crash of the previous launch, to be stored by a
+   *     {@link com.rakuten.tech.mobile.crash.tasks.RecoverCrashTask}.
+   */
+  public boolean reserveCrashSlot(Context context) {
+    if (crashSlot != null) {
+      return false;
+    }
+
+    CrashSlot slot = CrashSlot.open(new File(context.getCacheDir(), CrashReportConstants.CRASH_SLOT_FILE));
+    boolean committed = slot != null && slot.isCommitted();
+    crashRecoveryPending.set(committed);
+    crashSlot = slot;
+    return committed;
+  }
+
   public void processTask(Context context, CrashReportTask task) {
     switch (task.getType()) {
       case FOREGROUND:
         setSessionStartTime(context, ((ForegroundTask) task).getTimestamp());
+        notifySessionChanged(sessionStart, sessionEnd);
         break;
       case BACKGROUND:
         setSessionEndTime(((BackgroundTask) task).getTimestamp());
+        notifySessionChanged(sessionStart, sessionEnd);
         break;
       case FLUSH_LIFECYCLES:
         flushLifecyclesData(context);
         break;
+      case RECOVER_CRASH:
+        recoverCrashSlot(context);
+        break;
+      case RESTORE_SESSION:
+        RestoreSessionTask restore = (RestoreSessionTask) task;
+        restoreSession(context, restore.getSessionStart(), restore.getSessionEnd(), restore.getEvents());
+        break;
     }
   }
 
   /**
    * Reports crash info to server during an uncaught exception on the main application thread.
+   * The crash is persisted first, then sent only if it can be within the time left of
+   * {@link CrashReportConstants#CRASH_REPORT_BUDGET_MILLIS}. Whatever is not sent is flushed on the next launch.
+   * The crash is written to the crash slot beforehand, so it is still reported if the full report runs out of
+   * memory.
    *
    * @param ex Contains information related to the crash.
    * @param context Contains information related to the device and application.
    */
   public void reportCrash(Context context, @Nullable Throwable ex) {
+    reportCrash(context, ex, SystemClock.elapsedRealtime());
+  }
+
+  /**
+   * @param reportStart time at which the crash started being reported, as given by
+   *     {@link SystemClock#elapsedRealtime()}.
+   */
+  @VisibleForTesting
+  void reportCrash(Context context, @Nullable Throwable ex, long reportStart) {
+    // The session is stored along with the crash, so it must not be restored by the next launch.
+    notifySessionChanged(0, 0);
+
+    // A crash of the previous process not stored yet would be overwritten.
+    recoverCrashSlot(context);
+
+    // Saves the essentials of the crash without allocating, in case the full report runs out of memory.
+    CrashSlot slot = crashSlot;
+    if (slot != null && ex != null) {
+      slot.write(sessionStart != 0 ? sessionStart : System.currentTimeMillis(), System.currentTimeMillis(), ex);
+    }
+
+    try {
+      reportFullCrash(context, ex, reportStart, slot);
+    } catch (OutOfMemoryError e) {
+      // The crash slot is stored as a lifecycle on the next launch.
+    }
+  }
+
+  /**
+   * Reports the crash along with all its details, emptying the crash slot once the crash is stored.
+   */
+  private void reportFullCrash(Context context, @Nullable Throwable ex, long reportStart,
+      @Nullable CrashSlot slot) {
+
     // Set the final application state at time of crash.
     // Captures whether the host app is in foreground or background.
     ApplicationState.INSTANCE.isAppInFocus = this.isAppInFocus;
@@ -77,10 +280,23 @@ public class SessionLifecycleProcessor implements CrashReportProcessor {
 
     //Add lifecycle containing the crash into the list of application lifecycles.
     setSessionEndTime(System.currentTimeMillis());
-    addLifecycle(context, ex);
+    if (addLifecycle(context, ex, reportStart) && slot != null) {
+      slot.clear();
+    }
+
+    // Flags the crash to be sent on the next launch, committed now as the process is about to die.
+    PreferenceManager.getDefaultSharedPreferences(context).edit()
+        .putBoolean(CrashReportConstants.FLUSH_LIFECYCLES, true).commit();
 
     // Sending the application crash to crash report server.
-    sendApplicationLifecycles(context);
+    long remainingMillis = CrashReportConstants.CRASH_REPORT_BUDGET_MILLIS
+        - (SystemClock.elapsedRealtime() - reportStart);
+    if (remainingMillis < CrashReportConstants.MIN_CRASH_UPLOAD_MILLIS) {
+      Log.w(TAG, "No time left to send the crash report, it will be sent on the next launch.");
+    } else {
+      // Sent alongside any upload in flight, which holds other segments of the store.
+      sendApplicationLifecycles(context, remainingMillis);
+    }
   }
 
   private SessionLifecycleProcessor() {
@@ -88,9 +304,12 @@ public class SessionLifecycleProcessor implements CrashReportProcessor {
 
   /**
    * Persists a lifecycle consisting of foreground and background timestamps
-   * and a possible crash into local storage file.
+   * and a possible crash into local storage file. Crashes are synced to the storage device.
+   *
+   * @param reportStart Elapsed realtime at which the crash started being reported, unused without crash.
+   * @return whether the lifecycle was stored.
    */
-  private void addLifecycle(Context context, @Nullable Throwable exception) {
+  private boolean addLifecycle(Context context, @Nullable Throwable exception, long reportStart) {
     JSONObject lifecycle = new JSONObject();
 
     try {
@@ -132,6 +351,8 @@ public class SessionLifecycleProcessor implements CrashReportProcessor {
         crashDetails.put(CrashReportConstants.APP_EVENTS, appEventsArray);
         crashDetails.put(CrashReportConstants.SYSTEM_STATS,
             CommonUtil.INSTANCE.getAllSystemStats(context));
+        // Time spent by the crashing thread collecting the crash details.
+        crashDetails.put(CrashReportConstants.REPORT_MILLIS, SystemClock.elapsedRealtime() - reportStart);
 
         // Add crash detail into the current application's lifecycle.
         lifecycle.put(CrashReportConstants.CRASH_DETAILS, crashDetails);
@@ -143,103 +364,367 @@ public class SessionLifecycleProcessor implements CrashReportProcessor {
     }
 
     // Save lifecycle to application cache.
-    writeLifecycleCache(context, lifecycle);
+    return writeLifecycleCache(context, lifecycle, exception != null);
   }
 
   /**
-   * Clears the lifecycle file from the application cache.
-   *
-   * @param context Contains application specific cache directory.
+   * Stores the crash held by the crash slot since the previous launch as a lifecycle, to be sent with the next
+   * flush, unless it was already stored.
    */
-  private void clearLifecycleCache(Context context) {
-    (new File(context.getCacheDir(), CrashReportConstants.LIFECYCLE_FILE)).delete();
+  private void recoverCrashSlot(Context context) {
+    CrashSlot slot = crashSlot;
+    if (slot != null && crashRecoveryPending.compareAndSet(true, false)) {
+      // Holds back a new crash from being written to the slot while it is read.
+      synchronized (slot) {
+        recoverCrash(context, slot);
+      }
+    }
   }
 
   /**
-   * Sends all app lifecycles to crash report server and clears local cache.
-   *
-   * @param context Contains application specific cache directory.
+   * Stores the crash held by the crash slot as a lifecycle and flags it to be sent, then empties the slot.
+   */
+  private void recoverCrash(Context context, CrashSlot slot) {
+    JSONObject lifecycle = new JSONObject();
+
+    try {
+      String stackTrace = slot.getStackTrace();
+      JSONObject crashDetails = new JSONObject();
+      crashDetails.put(CrashReportConstants.ORIGIN_ERROR, getOriginError(context, stackTrace));
+      crashDetails.put(CrashReportConstants.STACK_TRACE, stackTrace);
+
+      lifecycle.put(CrashReportConstants.FG, slot.getForegroundTime());
+      lifecycle.put(CrashReportConstants.BG, slot.getBackgroundTime());
+      lifecycle.put(CrashReportConstants.CRASH_DETAILS, crashDetails);
+    } catch (JSONException e) {
+      Log.e(TAG, "Failure to read crash from crash slot.", e);
+      return;
+    }
+
+    if (writeLifecycleCache(context, lifecycle, true)) {
+      PreferenceManager.getDefaultSharedPreferences(context).edit()
+          .putBoolean(CrashReportConstants.FLUSH_LIFECYCLES, true).commit();
+      slot.clear();
+    }
+  }
+
+  /**
+   * Finds the first stack frame of the host app within a stack trace, or else its first stack frame, like
+   * {@link CrashInfoUtil#getPackageAndClassName}.
    */
-  private void checkLifecycleCacheSize(Context context) {
-    File cachedFile = new File(context.getCacheDir(), CrashReportConstants.LIFECYCLE_FILE);
-    // Checks if cached file is greater than 1 KB.
-    if (cachedFile.length() > 1000) {
-      sendApplicationLifecycles(context);
+  private static String getOriginError(Context context, String stackTrace) {
+    String firstFrame = "";
+    for (String line : stackTrace.split("\n")) {
+      if (!line.startsWith("\tat ")) {
+        continue;
+      }
+      String frame = line.substring("\tat ".length());
+      if (frame.contains(context.getApplicationInfo().packageName)) {
+        return frame;
+      }
+      if (firstFrame.isEmpty()) {
+        firstFrame = frame;
+      }
     }
+
+    return firstFrame;
   }
 
   /**
-   * Flushes all lifecycle data to crash report server.
+   * Flushes all lifecycle data to crash report server once the flush thresholds are reached.
    */
   private void flushLifecyclesData(Context context) {
-    File cachedFile = new File(context.getCacheDir(), CrashReportConstants.LIFECYCLE_FILE);
+    boolean flushDue;
+    synchronized (cacheLock) {
+      flushDue = isFlushDue(getLifecycleStore(context));
+    }
+
+    if (flushDue) {
+      uploadApplicationLifecycles(context);
+    }
+  }
 
-    if (cachedFile.exists() && cachedFile.length() != 0) {
-      sendApplicationLifecycles(context);
+  /**
+   * Checks the cached lifecycles against the flush thresholds, which a cached crash bypasses.
+   * Must be called while holding the cache lock.
+   */
+  private boolean isFlushDue(LifecycleStore store) {
+    if (store.hasCrash()) {
+      return !store.isEmpty();
     }
+
+    long oldestMillis = store.getOldestMillis();
+    return getFlushPolicy().shouldFlush(store.getRecordCount(), store.length(),
+        oldestMillis == 0 ? 0 : System.currentTimeMillis() - oldestMillis);
   }
 
   /**
-   * Reads the lifecycle cached file.
+   * Sends application lifecycles asynchronously, unless an upload is already in flight or the upload policy
+   * defers them.
+   */
+  private void uploadApplicationLifecycles(final Context context) {
+    if (!uploadInFlight.compareAndSet(false, true)) {
+      return;
+    }
+
+    final LifecycleStore.Claim claim;
+    synchronized (cacheLock) {
+      LifecycleStore store = getLifecycleStore(context);
+      claim = isUploadAllowed(context, store.hasCrash()) ? store.claim() : null;
+    }
+    AsyncHttpPost request = claim != null ? createLifecyclesRequest(context, claim) : null;
+
+    if (request == null) {
+      if (claim != null) {
+        releaseClaim(context, claim);
+      }
+      uploadInFlight.set(false);
+      return;
+    }
+
+    CrashReportHttpClient.getInstance().post(TaskPriority.LOW, request, RetryPolicy.DEFAULT,
+        new ResponseCallback() {
+          @Override
+          public void onResponse(int statusCode, @Nullable String responseBody) {
+            try {
+              onLifecyclesSent(context, statusCode, claim);
+            } finally {
+              uploadInFlight.set(false);
+            }
+          }
+        });
+  }
+
+  /**
+   * Claims the cached lifecycles for another request to send, unless an upload is already in flight, the flush
+   * thresholds are not reached or the upload policy defers them. {@link #onLifecyclesClaimSent} must be called
+   * once the request completed, or {@link #releaseLifecyclesClaim} if it could not be sent.
    *
-   * @param context Contains application specific cache directory.
-   * @return JSONArray containing all application lifecycles as JSONObjects.
+   * @return null if there is nothing to send, an upload is in flight or sessions are held back.
    */
-  private JSONArray readLifecycleCache(Context context) {
-    JSONArray results = new JSONArray();
+  @Nullable
+  LifecycleStore.Claim claimLifecycles(Context context) {
+    if (!uploadInFlight.compareAndSet(false, true)) {
+      return null;
+    }
+
+    synchronized (cacheLock) {
+      LifecycleStore store = getLifecycleStore(context);
+      if (isFlushDue(store) && isUploadAllowed(context, store.hasCrash())) {
+        LifecycleStore.Claim claim = store.claim();
+        if (claim != null) {
+          return claim;
+        }
+      }
+    }
 
+    uploadInFlight.set(false);
+    return null;
+  }
+
+  /**
+   * Deletes the claimed lifecycles if they were accepted by the server, and ends the upload.
+   */
+  void onLifecyclesClaimSent(Context context, int statusCode, LifecycleStore.Claim claim) {
+    try {
+      onLifecyclesSent(context, statusCode, claim);
+    } finally {
+      uploadInFlight.set(false);
+    }
+  }
+
+  /**
+   * Keeps the claimed lifecycles to be sent by a later flush, and ends the upload.
+   */
+  void releaseLifecyclesClaim(Context context, LifecycleStore.Claim claim) {
     try {
-      // Reading cached lifecycle file and parsing returned String output by '##'.
-      File cachedFile = new File(context.getCacheDir(), CrashReportConstants.LIFECYCLE_FILE);
-      InputStream inputStream = new FileInputStream(cachedFile);
-      String[] parsedFile = (CommonUtil.INSTANCE.readInputStreamToString(inputStream).split("##"));
+      releaseClaim(context, claim);
+    } finally {
+      uploadInFlight.set(false);
+    }
+  }
 
-      for (String jsonStr : parsedFile) {
-        results.put(new JSONObject(jsonStr));
+  /**
+   * Seals the lifecycles cached so far and claims them for a request, leaving the store open to new lifecycles.
+   *
+   * @return null if there is nothing to send.
+   */
+  @Nullable
+  private LifecycleStore.Claim claimLifecycleSegments(Context context) {
+    synchronized (cacheLock) {
+      return getLifecycleStore(context).claim();
+    }
+  }
+
+  /**
+   * Opens the lifecycle store on first use, migrating the lifecycles cached by previous versions.
+   * Must be called while holding the cache lock.
+   */
+  private LifecycleStore getLifecycleStore(Context context) {
+    if (lifecycleStore == null) {
+      File directory = new File(context.getCacheDir(), CrashReportConstants.LIFECYCLE_DIRECTORY);
+      File log = new File(context.getCacheDir(), CrashReportConstants.LIFECYCLE_LOG_FILE);
+      directory.mkdirs();
+      // Lifecycles cached before the store was segmented are sent first.
+      if (log.exists() && !log.renameTo(LifecycleStore.firstSegment(directory))) {
+        Log.e(TAG, "Failure to move cached lifecycles into the lifecycle store.");
       }
-    } catch (IOException e) {
-      Log.e(TAG, "Failure to read application cache for lifecycles.", e);
-    } catch (JSONException e) {
-      Log.e(TAG, "Failure to convert lifecycles into JSONObjects.", e);
+
+      lifecycleStore = new LifecycleStore(directory);
+      lifecycleStore.migrate(new File(context.getCacheDir(), CrashReportConstants.LIFECYCLE_FILE));
     }
 
-    return results;
+    return lifecycleStore;
   }
 
   /**
    * Sends application lifecycles containing crash and/or crash-free user sessions to Crash Report Server.
+   * Blocks until the server responded or the timeout elapsed. The request runs on its own thread so a
+   * stalled connection cannot hold the caller past the timeout. Only segments which are not already being sent
+   * are claimed, so this runs alongside any upload in flight; on timeout they stay claimed as the process is dying.
    *
    * @param context Contains information related to the device and application.
+   * @param timeoutMillis Time to wait for the response.
+   */
+  private void sendApplicationLifecycles(Context context, long timeoutMillis) {
+    LifecycleStore.Claim claim = claimLifecycleSegments(context);
+    if (claim == null) {
+      return;
+    }
+
+    AsyncHttpPost request = createLifecyclesRequest(context, claim);
+    if (request == null) {
+      releaseClaim(context, claim);
+      return;
+    }
+
+    request.setTimeout((int) timeoutMillis);
+    FutureTask<Integer> upload = new FutureTask<>(request);
+    Thread uploadThread = new Thread(upload, "CrashReporting-Crash");
+    uploadThread.setDaemon(true);
+    uploadThread.start();
+
+    try {
+      onLifecyclesSent(context, upload.get(timeoutMillis, TimeUnit.MILLISECONDS), claim);
+    } catch (TimeoutException e) {
+      Log.w(TAG, "Crash report not sent within " + timeoutMillis + " ms, it will be sent on the next launch.");
+    } catch (InterruptedException e) {
+      Log.e(TAG, "Interrupted while sending crash report to server.", e);
+    } catch (ExecutionException e) {
+      Log.e(TAG, "Failure to send crash report to server.", e);
+      releaseClaim(context, claim);
+    }
+  }
+
+  /**
+   * Creates a request holding the claimed lifecycles along with the device identifiers. Lifecycles are streamed
+   * from the claimed segments into the request body as it is sent, so they are never all held in memory.
+   *
+   * @return null if the request could not be created.
    */
-  private void sendApplicationLifecycles(Context context) {
+  @Nullable
+  private AsyncHttpPost createLifecyclesRequest(Context context, LifecycleStore.Claim claim) {
     try {
       // Populate crashInfo.
       JSONObject crashInfo = new JSONObject(
           DeviceInfoUtil.getInstance().getDeviceIdentifiers(context));
 
-      crashInfo.put(CrashReportConstants.LIFECYCLES, readLifecycleCache(context));
-
       AsyncHttpPost.CrashServerURL url = new AsyncHttpPost.CrashServerURL(
           new URL(CrashReport.getInstance().getSessionsUrl()));
-      SharedPreferences.Editor sharedPreferenceEditor = PreferenceManager
-          .getDefaultSharedPreferences(context).edit();
-
-      // Checks for the status code of the post request.
-      if (new AsyncHttpPost(url, crashInfo).execute().get() == 200) {
-        // Clears lifecycle cache after being sent to crash report server.
-        clearLifecycleCache(context);
-        sharedPreferenceEditor.putBoolean(CrashReportConstants.FLUSH_LIFECYCLES, false).apply();
-      } else {
-        sharedPreferenceEditor.putBoolean(CrashReportConstants.FLUSH_LIFECYCLES, true).apply();
-      }
+      return new AsyncHttpPost(url, crashInfo, CrashReportConstants.LIFECYCLES, claim.lifecycles);
     } catch (MalformedURLException e) {
       Log.e(TAG, "Failure to send crash report to server.", e);
-    } catch (JSONException e) {
-      Log.e(TAG, "Failure to report application lifecycles to server.", e);
-    } catch (InterruptedException e) {
-      Log.e(TAG, "InterruptedException while sending crash report to server.", e);
-    } catch (ExecutionException e) {
-      Log.e(TAG, "Failed to send crash report to server.", e);
+    }
+
+    return null;
+  }
+
+  /**
+   * Checks the upload policy against the current conditions. Deferred sessions are flagged to be flushed once the
+   * network changes or on the next launch, and the time of the first deferral is kept to bound it. A flush is
+   * scheduled for when the maximum deferral expires. Must be called while holding the cache lock.
+   *
+   * @param hasCrash whether the sessions to send hold a crash.
+   */
+  private boolean isUploadAllowed(Context context, boolean hasCrash) {
+    SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+    long now = System.currentTimeMillis();
+    long deferredSince = prefs.getLong(CrashReportConstants.DEFERRED_SINCE, 0);
+    UploadPolicy policy = uploadPolicy;
+
+    boolean allowed = policy.shouldUpload(UploadPolicy.Conditions.read(context), hasCrash,
+        deferredSince == 0 ? 0 : now - deferredSince);
+
+    if (allowed && deferredSince != 0) {
+      prefs.edit().remove(CrashReportConstants.DEFERRED_SINCE).apply();
+    } else if (!allowed) {
+      SharedPreferences.Editor editor = prefs.edit().putBoolean(CrashReportConstants.FLUSH_LIFECYCLES, true);
+      if (deferredSince == 0) {
+        deferredSince = now;
+        editor.putLong(CrashReportConstants.DEFERRED_SINCE, now);
+      }
+      editor.apply();
+      scheduleDeferredFlush(deferredSince + policy.getMaxDeferralMillis(), now);
+      Log.d(TAG, "Deferring session upload until network and power conditions improve.");
+    }
+
+    return allowed;
+  }
+
+  /**
+   * Schedules a flush at the given time, unless one is already scheduled by then.
+   */
+  private void scheduleDeferredFlush(long flushMillis, long now) {
+    FlushScheduler scheduler = flushScheduler;
+    if (scheduler == null || (scheduledFlushMillis > now && scheduledFlushMillis <= flushMillis)) {
+      return;
+    }
+
+    scheduledFlushMillis = flushMillis;
+    scheduler.scheduleFlush(Math.max(0, flushMillis - now));
+  }
+
+  /**
+   * Deletes the claimed segments once acknowledged by the server, otherwise releases them to be flushed on the
+   * next connection.
+   */
+  private void onLifecyclesSent(Context context, int statusCode, LifecycleStore.Claim claim) {
+    // Checks for the status code of the post request.
+    if (statusCode == 200) {
+      // Deletes lifecycles after being received by crash report server.
+      synchronized (cacheLock) {
+        getLifecycleStore(context).acknowledge(claim);
+      }
+      PreferenceManager.getDefaultSharedPreferences(context).edit()
+          .putBoolean(CrashReportConstants.FLUSH_LIFECYCLES, false).apply();
+    } else {
+      releaseClaim(context, claim);
+    }
+  }
+
+  /**
+   * Releases the claimed segments, which were not received by the server, to be flushed on the next connection.
+   */
+  private void releaseClaim(Context context, LifecycleStore.Claim claim) {
+    synchronized (cacheLock) {
+      getLifecycleStore(context).release(claim);
+    }
+    PreferenceManager.getDefaultSharedPreferences(context).edit()
+        .putBoolean(CrashReportConstants.FLUSH_LIFECYCLES, true).apply();
+  }
+
+  /**
+   * Records whether the host app is in foreground, at the time the lifecycle event happens rather than when its task
+   * is processed, so a crash right after the app moved to background is not reported as happening in foreground.
+   */
+  public void setAppInFocus(boolean inFocus) {
+    isAppInFocus = inFocus;
+  }
+
+  private void notifySessionChanged(long start, long end) {
+    OnSessionChangedListener listener = sessionListener;
+    if (listener != null) {
+      listener.onSessionChanged(start, end);
     }
   }
 
@@ -248,14 +733,13 @@ public class SessionLifecycleProcessor implements CrashReportProcessor {
    */
   private void setSessionStartTime(Context context, Long newStartTime) {
     // Checks if the app booted up or returned from background for longer than 5 seconds.
-    isAppInFocus = true;
     if (sessionStart == 0) {
       sessionStart = newStartTime;
-    } else if (newStartTime - sessionEnd > 5000) {
+    } else if (newStartTime - sessionEnd > CrashReportConstants.SESSION_GAP_MILLIS) {
       // Add current application lifecycle in LIFECYCLE cache.
-      addLifecycle(context, null);
-      // Check if cache has reached the file size limit.
-      checkLifecycleCacheSize(context);
+      addLifecycle(context, null, 0);
+      // Check if cache has reached the flush thresholds.
+      flushLifecyclesData(context);
       // Reset start timer to flag a new start time session.
       sessionStart = newStartTime;
     }
@@ -265,7 +749,6 @@ public class SessionLifecycleProcessor implements CrashReportProcessor {
    * Detects if pause of an activity is the application moving in background and sets the session end time.
    */
   private void setSessionEndTime(Long newEndTime) {
-    isAppInFocus = false;
     sessionEnd = newEndTime;
   }
 
@@ -274,18 +757,38 @@ public class SessionLifecycleProcessor implements CrashReportProcessor {
    *
    * @param context Contains application specific cache directory.
    * @param lifecycle Most recent lifecycle data needed to be written in cache.
+   * @param sync Whether to wait for the lifecycle to reach the storage device, so it survives the device
+   *     shutting down as well as the process dying.
+   * @return whether the lifecycle was stored.
    */
-  private void writeLifecycleCache(Context context, JSONObject lifecycle) {
-    File cachedFile = new File(context.getCacheDir(), CrashReportConstants.LIFECYCLE_FILE);
+  private boolean writeLifecycleCache(Context context, JSONObject lifecycle, boolean sync) {
     try {
       // Stores lifecycle inside application cache directory.
-      FileWriter fileWriter = new FileWriter(cachedFile, true);
-      fileWriter.write(lifecycle.toString() + "##");
-      fileWriter.close();
+      synchronized (cacheLock) {
+        getLifecycleStore(context).append(lifecycle, sync);
+      }
+      return true;
     } catch (IOException e) {
       Log.e(TAG,
           "Failure to write application foreground, background, and crash lifecycle in local cache.",
           e);
+      return false;
     }
   }
-}
\ No newline at end of file
+
+  /**
+   * Runs a flush of the cached lifecycles after a delay.
+   */
+  public interface FlushScheduler {
+
+    void scheduleFlush(long delayMillis);
+  }
+
+  /**
+   * Receives the session times, so they can be saved for the next launch.
+   */
+  public interface OnSessionChangedListener {
+
+    void onSessionChanged(long sessionStart, long sessionEnd);
+  }
+}
@@ -3,14 +3,29 @@ package com.rakuten.tech.mobile.crash.tasks;
 /**
  * A representation of an event when application went into background.
  */
-public class BackgroundTask implements CrashReportTask {
+public class BackgroundTask implements RecyclableTask {
 
-  private final long timestamp;
+  private static final TaskPool<BackgroundTask> POOL = new TaskPool<>(16);
+  private long timestamp;
 
   public BackgroundTask(Long time) {
     timestamp = time;
   }
 
+  /**
+   * Returns a pooled instance when available, so activity callbacks do not allocate.
+   */
+  public static BackgroundTask obtain(long time) {
+    BackgroundTask task = POOL.acquire();
+
+    if (task == null) {
+      return new BackgroundTask(time);
+    }
+
+    task.timestamp = time;
+    return task;
+  }
+
   public long getTimestamp() {
     return timestamp;
   }
@@ -18,4 +33,9 @@ public class BackgroundTask implements CrashReportTask {
   public TaskType getType() {
     return TaskType.BACKGROUND;
   }
+
+  @Override
+  public void recycle() {
+    POOL.release(this);
+  }
 }
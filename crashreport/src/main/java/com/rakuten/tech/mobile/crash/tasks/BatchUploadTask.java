@@ -0,0 +1,12 @@
+package com.rakuten.tech.mobile.crash.tasks;
+
+/**
+ * Representation of a trigger to report a new install event and cached lifecycles, including crashes, to Crash
+ * Report server in a single request.
+ */
+public class BatchUploadTask implements CrashReportTask {
+
+  public TaskType getType() {
+    return TaskType.BATCH_UPLOAD;
+  }
+}
@@ -8,10 +8,23 @@ public interface CrashReportTask {
   TaskType getType();
 
   enum TaskType {
-    BACKGROUND,
-    FLUSH_LIFECYCLES,
-    FOREGROUND,
-    GET_CONFIG,
-    NEW_INSTALL
+    BACKGROUND(TaskPriority.LOW),
+    BATCH_UPLOAD(TaskPriority.NORMAL),
+    FLUSH_LIFECYCLES(TaskPriority.LOW),
+    FOREGROUND(TaskPriority.LOW),
+    GET_CONFIG(TaskPriority.HIGH),
+    NEW_INSTALL(TaskPriority.NORMAL),
+    RECOVER_CRASH(TaskPriority.HIGH),
+    RESTORE_SESSION(TaskPriority.HIGH);
+
+    private final TaskPriority priority;
+
+    TaskType(TaskPriority priority) {
+      this.priority = priority;
+    }
+
+    public TaskPriority getPriority() {
+      return priority;
+    }
   }
 }
@@ -3,14 +3,29 @@ package com.rakuten.tech.mobile.crash.tasks;
 /**
  * A representation of an event when application went into foreground.
  */
-public class ForegroundTask implements CrashReportTask {
+public class ForegroundTask implements RecyclableTask {
 
-  private final long timestamp;
+  private static final TaskPool<ForegroundTask> POOL = new TaskPool<>(16);
+  private long timestamp;
 
   public ForegroundTask(Long time) {
     timestamp = time;
   }
 
+  /**
+   * Returns a pooled instance when available, so activity callbacks do not allocate.
+   */
+  public static ForegroundTask obtain(long time) {
+    ForegroundTask task = POOL.acquire();
+
+    if (task == null) {
+      return new ForegroundTask(time);
+    }
+
+    task.timestamp = time;
+    return task;
+  }
+
   public long getTimestamp() {
     return timestamp;
   }
@@ -18,4 +33,9 @@ public class ForegroundTask implements CrashReportTask {
   public TaskType getType() {
     return TaskType.FOREGROUND;
   }
+
+  @Override
+  public void recycle() {
+    POOL.release(this);
+  }
 }
@@ -0,0 +1,11 @@
+package com.rakuten.tech.mobile.crash.tasks;
+
+/**
+ * Representation of a trigger to store the crash left in the crash slot by the previous process as a lifecycle.
+ */
+public class RecoverCrashTask implements CrashReportTask {
+
+  public TaskType getType() {
+    return TaskType.RECOVER_CRASH;
+  }
+}
@@ -0,0 +1,12 @@
+package com.rakuten.tech.mobile.crash.tasks;
+
+/**
+ * Task taken from a pool, returned to it once processed.
+ */
+public interface RecyclableTask extends CrashReportTask {
+
+  /**
+   * Returns the task to its pool. The task must not be used afterwards.
+   */
+  void recycle();
+}
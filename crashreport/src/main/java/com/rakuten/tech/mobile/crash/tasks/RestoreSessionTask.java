@@ -0,0 +1,36 @@
+package com.rakuten.tech.mobile.crash.tasks;
+
+import java.util.List;
+
+/**
+ * Representation of the session left in the task journal by the previous process, along with its lifecycle events
+ * which were not processed, to be restored before the lifecycle events of this process.
+ */
+public class RestoreSessionTask implements CrashReportTask {
+
+  private final long sessionStart;
+  private final long sessionEnd;
+  private final List<CrashReportTask> events;
+
+  public RestoreSessionTask(long sessionStart, long sessionEnd, List<CrashReportTask> events) {
+    this.sessionStart = sessionStart;
+    this.sessionEnd = sessionEnd;
+    this.events = events;
+  }
+
+  public long getSessionStart() {
+    return sessionStart;
+  }
+
+  public long getSessionEnd() {
+    return sessionEnd;
+  }
+
+  public List<CrashReportTask> getEvents() {
+    return events;
+  }
+
+  public TaskType getType() {
+    return TaskType.RESTORE_SESSION;
+  }
+}
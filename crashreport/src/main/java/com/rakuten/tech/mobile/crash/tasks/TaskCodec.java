@@ -0,0 +1,87 @@
+package com.rakuten.tech.mobile.crash.tasks;
+
+import android.support.annotation.Nullable;
+import com.rakuten.tech.mobile.crash.tasks.CrashReportTask.TaskType;
+
+/**
+ * Encodes tasks into a single long so they can be persisted outside of the heap.
+ * The task type occupies the top byte and the timestamp, if any, the remaining 56 bits.
+ * Type codes are fixed values so persisted tasks stay readable when {@link TaskType} changes.
+ */
+public final class TaskCodec {
+
+  private static final int TYPE_SHIFT = 56;
+  private static final long TIMESTAMP_MASK = (1L << TYPE_SHIFT) - 1;
+  private static final int CODE_BACKGROUND = 1;
+  private static final int CODE_FLUSH_LIFECYCLES = 2;
+  private static final int CODE_FOREGROUND = 3;
+  private static final int CODE_NEW_INSTALL = 4;
+  private static final int CODE_BATCH_UPLOAD = 5;
+
+  private TaskCodec() {
+  }
+
+  /**
+   * Only tasks without callbacks can be encoded.
+   */
+  public static boolean isEncodable(CrashReportTask task) {
+    return typeCode(task.getType()) != 0;
+  }
+
+  public static long encode(CrashReportTask task) {
+    long timestamp = 0;
+
+    switch (task.getType()) {
+      case FOREGROUND:
+        timestamp = ((ForegroundTask) task).getTimestamp();
+        break;
+      case BACKGROUND:
+        timestamp = ((BackgroundTask) task).getTimestamp();
+        break;
+      default:
+        break;
+    }
+
+    return ((long) typeCode(task.getType()) << TYPE_SHIFT) | (timestamp & TIMESTAMP_MASK);
+  }
+
+  /**
+   * @return the decoded task, or null if the value does not hold a known task.
+   */
+  @Nullable
+  public static CrashReportTask decode(long encoded) {
+    long timestamp = encoded & TIMESTAMP_MASK;
+
+    switch ((int) (encoded >>> TYPE_SHIFT)) {
+      case CODE_BACKGROUND:
+        return new BackgroundTask(timestamp);
+      case CODE_FLUSH_LIFECYCLES:
+        return new FlushLifecyclesTask();
+      case CODE_FOREGROUND:
+        return new ForegroundTask(timestamp);
+      case CODE_NEW_INSTALL:
+        return new NewInstallTask();
+      case CODE_BATCH_UPLOAD:
+        return new BatchUploadTask();
+      default:
+        return null;
+    }
+  }
+
+  private static int typeCode(TaskType type) {
+    switch (type) {
+      case BACKGROUND:
+        return CODE_BACKGROUND;
+      case FLUSH_LIFECYCLES:
+        return CODE_FLUSH_LIFECYCLES;
+      case FOREGROUND:
+        return CODE_FOREGROUND;
+      case NEW_INSTALL:
+        return CODE_NEW_INSTALL;
+      case BATCH_UPLOAD:
+        return CODE_BATCH_UPLOAD;
+      default:
+        return 0;
+    }
+  }
+}
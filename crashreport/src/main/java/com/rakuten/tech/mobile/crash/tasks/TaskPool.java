@@ -0,0 +1,41 @@
+package com.rakuten.tech.mobile.crash.tasks;
+
+import android.support.annotation.Nullable;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Small fixed size pool of reusable task instances. Acquiring and releasing are lock-free and never allocate.
+ */
+final class TaskPool<T extends CrashReportTask> {
+
+  private final AtomicReferenceArray<T> slots;
+
+  TaskPool(int size) {
+    slots = new AtomicReferenceArray<>(size);
+  }
+
+  /**
+   * @return a pooled instance, or null if the pool is empty.
+   */
+  @Nullable
+  T acquire() {
+    for (int i = 0; i < slots.length(); i++) {
+      T task = slots.get(i);
+      if (task != null && slots.compareAndSet(i, task, null)) {
+        return task;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns an instance to the pool. The instance is left to the garbage collector if the pool is full.
+   */
+  void release(T task) {
+    for (int i = 0; i < slots.length(); i++) {
+      if (slots.get(i) == null && slots.compareAndSet(i, null, task)) {
+        return;
+      }
+    }
+  }
+}
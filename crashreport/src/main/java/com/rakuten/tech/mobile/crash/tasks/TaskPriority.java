@@ -0,0 +1,19 @@
+package com.rakuten.tech.mobile.crash.tasks;
+
+/**
+ * Order in which tasks are served, from first to last. Tasks of the same priority keep their FIFO order.
+ */
+public enum TaskPriority {
+  /**
+   * Work gating the rest of the SDK, such as fetching the configuration.
+   */
+  HIGH,
+  /**
+   * One-off reports.
+   */
+  NORMAL,
+  /**
+   * Lifecycle housekeeping.
+   */
+  LOW
+}
@@ -5,10 +5,9 @@ import android.support.annotation.Nullable;
 import android.util.Log;
 import com.rakuten.tech.mobile.crash.ApplicationState;
 import com.rakuten.tech.mobile.crash.CrashReportConstants;
-import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.util.Map;
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -20,6 +19,14 @@ import org.json.JSONObject;
 public enum CommonUtil {
   INSTANCE;
   private final static String TAG = "CommonUtil";
+  private static final int READ_BUFFER_SIZE = 8192;
+  // Read buffer reused by every stream read on the same thread.
+  private final ThreadLocal<byte[]> readBuffer = new ThreadLocal<byte[]>() {
+    @Override
+    protected byte[] initialValue() {
+      return new byte[READ_BUFFER_SIZE];
+    }
+  };
 
   /**
    * Sets all system stats for session lifecycles.
@@ -93,27 +100,44 @@ public enum CommonUtil {
    *   null if the input stream could not be read correctly
    */
   @Nullable
-  public String readInputStreamToString(InputStream inputStream) {
-    String result;
-    StringBuilder stringBuffer = new StringBuilder();
+  public String readInputStreamToString(@Nullable InputStream inputStream) {
+    return readInputStreamToString(inputStream, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Reads a UTF-8 encoded stream to the end, then closes it.
+   *
+   * @param maxBytes Size above which reading is abandoned.
+   * @return String containing the body of the connection response or
+   *   null if the input stream is null, could not be read correctly or is larger than maxBytes
+   */
+  @Nullable
+  public String readInputStreamToString(@Nullable InputStream inputStream, int maxBytes) {
+    if (inputStream == null) {
+      return null;
+    }
+
+    String result = null;
+    byte[] buffer = readBuffer.get();
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(Math.min(buffer.length, maxBytes));
 
     try {
-      BufferedReader br = new BufferedReader(new InputStreamReader(inputStream));
-      String inputLine = "";
-      while ((inputLine = br.readLine()) != null) {
-        stringBuffer.append(inputLine);
+      int count;
+      while ((count = inputStream.read(buffer)) != -1) {
+        if (count > maxBytes - bytes.size()) {
+          Log.w(TAG, "InputStream exceeds the maximum size of " + maxBytes + " bytes");
+          return null;
+        }
+        bytes.write(buffer, 0, count);
       }
-      result = stringBuffer.toString();
+      result = bytes.toString("UTF-8");
     } catch (IOException e) {
       Log.i(TAG, "Error reading InputStream");
-      result = null;
     } finally {
-      if (inputStream != null) {
-        try {
-          inputStream.close();
-        } catch (IOException e) {
-          Log.d(TAG, "Error closing InputStream");
-        }
+      try {
+        inputStream.close();
+      } catch (IOException e) {
+        Log.d(TAG, "Error closing InputStream");
       }
     }
 
@@ -1,18 +1,24 @@
 package com.rakuten.tech.mobile.crash
 
 import com.rakuten.tech.mobile.crash.AsyncHttpPost.CrashServerURL
+import org.amshove.kluent.shouldBeNull
+import org.amshove.kluent.shouldEqual
 import org.json.JSONObject
+import org.junit.After
 import org.junit.Before
 import org.junit.Test
 import org.mockito.Mock
 import org.mockito.Mockito.*
 import org.mockito.MockitoAnnotations
 import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
 import java.io.IOException
 import java.io.InputStream
 import java.io.OutputStream
 import java.net.HttpURLConnection
+import java.net.URL
 import java.net.URLConnection
+import java.util.zip.GZIPInputStream
 
 class AsyncHttpPostSpec : RobolectricUnitSpec() {
     @Mock
@@ -29,6 +35,12 @@ class AsyncHttpPostSpec : RobolectricUnitSpec() {
         asyncHttpPost = AsyncHttpPost(stubURL, JSONObject("{}"))
     }
 
+    @After
+    fun tearDown() {
+        CrashReportHttpClient.getInstance().compressionMinSize = -1
+        CrashReportHttpClient.getInstance().isCborEnabled = false
+    }
+
     @Test
     fun `should do a lot of things`() { // TODO: this test conflates many behaviors. should split
 
@@ -37,7 +49,7 @@ class AsyncHttpPostSpec : RobolectricUnitSpec() {
         `when`<InputStream>(mockConnection.inputStream)
                 .thenReturn(ByteArrayInputStream("".toByteArray(charset("UTF-8"))))
 
-        asyncHttpPost.doInBackground()
+        asyncHttpPost.call()
 
         verify<HttpURLConnection>(mockConnection).setRequestProperty(eq("Content-Type"), eq("application/json; charset=utf-8"))
         verify<HttpURLConnection>(mockConnection).setRequestProperty("Ocp-Apim-Subscription-Key", "")
@@ -49,11 +61,167 @@ class AsyncHttpPostSpec : RobolectricUnitSpec() {
         verify<HttpURLConnection>(mockConnection).disconnect()
     }
 
+    @Test
+    fun `should keep connection alive after reading response`() {
+        `when`<URLConnection>(stubURL.openConnection()).thenReturn(mockConnection)
+        `when`(mockConnection.outputStream).thenReturn(mockOutputStream)
+        `when`(mockConnection.url).thenReturn(URL("https://test.example.com/sessions"))
+        `when`(mockConnection.responseCode).thenReturn(200)
+        `when`<InputStream>(mockConnection.inputStream).thenReturn(ByteArrayInputStream(ByteArray(0)))
+
+        asyncHttpPost.call()
+
+        verify<HttpURLConnection>(mockConnection, times(0)).disconnect()
+    }
+
+    @Test
+    fun `should drop response over size cap and close connection`() {
+        `when`<URLConnection>(stubURL.openConnection()).thenReturn(mockConnection)
+        `when`(mockConnection.outputStream).thenReturn(mockOutputStream)
+        `when`(mockConnection.url).thenReturn(URL("https://test.example.com/sessions"))
+        `when`(mockConnection.responseCode).thenReturn(200)
+        `when`<InputStream>(mockConnection.inputStream).thenReturn(ByteArrayInputStream(ByteArray(65 * 1024)))
+
+        asyncHttpPost.call()
+
+        asyncHttpPost.serverMessage.shouldBeNull()
+        verify<HttpURLConnection>(mockConnection).disconnect()
+    }
+
+    @Test
+    fun `should drain error response to keep connection alive`() {
+        val errorStream = ByteArrayInputStream("error".toByteArray())
+        `when`<URLConnection>(stubURL.openConnection()).thenReturn(mockConnection)
+        `when`(mockConnection.outputStream).thenReturn(mockOutputStream)
+        `when`(mockConnection.url).thenReturn(URL("https://test.example.com/sessions"))
+        `when`(mockConnection.responseCode).thenReturn(500)
+        `when`<InputStream>(mockConnection.errorStream).thenReturn(errorStream)
+
+        asyncHttpPost.call().shouldEqual(500)
+
+        errorStream.available().shouldEqual(0)
+        verify<HttpURLConnection>(mockConnection, times(0)).inputStream
+        verify<HttpURLConnection>(mockConnection, times(0)).disconnect()
+    }
+
+    @Test
+    fun `should set default timeouts`() {
+        `when`<URLConnection>(stubURL.openConnection()).thenReturn(mockConnection)
+        `when`(mockConnection.outputStream).thenReturn(mockOutputStream)
+
+        asyncHttpPost.call()
+
+        verify<HttpURLConnection>(mockConnection).connectTimeout = 30000
+        verify<HttpURLConnection>(mockConnection).readTimeout = 30000
+    }
+
+    @Test
+    fun `should set given timeouts`() {
+        `when`<URLConnection>(stubURL.openConnection()).thenReturn(mockConnection)
+        `when`(mockConnection.outputStream).thenReturn(mockOutputStream)
+        asyncHttpPost.setTimeout(1500)
+
+        asyncHttpPost.call()
+
+        verify<HttpURLConnection>(mockConnection).connectTimeout = 1500
+        verify<HttpURLConnection>(mockConnection).readTimeout = 1500
+    }
+
+    @Test
+    fun `should read retry after delay in seconds`() {
+        `when`<URLConnection>(stubURL.openConnection()).thenReturn(mockConnection)
+        `when`(mockConnection.outputStream).thenReturn(mockOutputStream)
+        `when`(mockConnection.responseCode).thenReturn(503)
+        `when`(mockConnection.getHeaderField("Retry-After")).thenReturn("120")
+
+        asyncHttpPost.call()
+
+        asyncHttpPost.retryAfterMillis.shouldEqual(120000L)
+    }
+
+    @Test
+    fun `should ignore missing retry after`() {
+        `when`<URLConnection>(stubURL.openConnection()).thenReturn(mockConnection)
+        `when`(mockConnection.outputStream).thenReturn(mockOutputStream)
+        `when`(mockConnection.responseCode).thenReturn(503)
+
+        asyncHttpPost.call()
+
+        asyncHttpPost.retryAfterMillis.shouldEqual(-1L)
+    }
+
+    @Test
+    fun `should send uncompressed body by default`() {
+        val body = ByteArrayOutputStream()
+        `when`<URLConnection>(stubURL.openConnection()).thenReturn(mockConnection)
+        `when`(mockConnection.outputStream).thenReturn(body)
+        `when`<InputStream>(mockConnection.inputStream).thenReturn(ByteArrayInputStream(ByteArray(0)))
+
+        asyncHttpPost.call()
+
+        verify<HttpURLConnection>(mockConnection, times(0)).setRequestProperty(eq("Content-Encoding"), anyString())
+        String(body.toByteArray(), Charsets.UTF_8).shouldEqual("{}")
+    }
+
+    @Test
+    fun `should send cbor body when enabled`() {
+        CrashReportHttpClient.getInstance().isCborEnabled = true
+        val body = ByteArrayOutputStream()
+        `when`<URLConnection>(stubURL.openConnection()).thenReturn(mockConnection)
+        `when`(mockConnection.outputStream).thenReturn(body)
+        `when`<InputStream>(mockConnection.inputStream).thenReturn(ByteArrayInputStream(ByteArray(0)))
+
+        asyncHttpPost.call()
+
+        verify<HttpURLConnection>(mockConnection).setRequestProperty("Content-Type", "application/cbor")
+        body.toByteArray().toList().shouldEqual(listOf(0xa0.toByte()))
+    }
+
+    @Test
+    fun `should send small body with fixed length`() {
+        `when`<URLConnection>(stubURL.openConnection()).thenReturn(mockConnection)
+        `when`(mockConnection.outputStream).thenReturn(ByteArrayOutputStream())
+        `when`<InputStream>(mockConnection.inputStream).thenReturn(ByteArrayInputStream(ByteArray(0)))
+
+        asyncHttpPost.call()
+
+        verify<HttpURLConnection>(mockConnection).setFixedLengthStreamingMode(2)
+        verify<HttpURLConnection>(mockConnection, times(0)).setChunkedStreamingMode(anyInt())
+    }
+
+    @Test
+    fun `should stream large body in chunks`() {
+        val body = ByteArrayOutputStream()
+        `when`<URLConnection>(stubURL.openConnection()).thenReturn(mockConnection)
+        `when`(mockConnection.outputStream).thenReturn(body)
+        `when`<InputStream>(mockConnection.inputStream).thenReturn(ByteArrayInputStream(ByteArray(0)))
+        val data = JSONObject().put("log", "x".repeat(10000))
+
+        AsyncHttpPost(stubURL, data).call()
+
+        verify<HttpURLConnection>(mockConnection).setChunkedStreamingMode(0)
+        JSONObject(String(body.toByteArray(), Charsets.UTF_8)).getString("log").length.shouldEqual(10000)
+    }
+
+    @Test
+    fun `should gzip body from negotiated size`() {
+        val body = ByteArrayOutputStream()
+        `when`<URLConnection>(stubURL.openConnection()).thenReturn(mockConnection)
+        `when`(mockConnection.outputStream).thenReturn(body)
+        `when`<InputStream>(mockConnection.inputStream).thenReturn(ByteArrayInputStream(ByteArray(0)))
+        CrashReportHttpClient.getInstance().compressionMinSize = 2
+
+        asyncHttpPost.call()
+
+        verify<HttpURLConnection>(mockConnection).setRequestProperty("Content-Encoding", "gzip")
+        GZIPInputStream(ByteArrayInputStream(body.toByteArray())).reader().readText().shouldEqual("{}")
+    }
+
     @Test
     fun `should should handle IOExceptions`() {
         `when`<URLConnection>(stubURL.openConnection()).thenThrow(IOException())
 
-        asyncHttpPost.doInBackground()
+        asyncHttpPost.call()
 
         verify<HttpURLConnection>(mockConnection, times(0))
                 .setRequestProperty(eq("Content-Type"), eq("application/json; charset=utf-8"))
@@ -68,7 +236,7 @@ class AsyncHttpPostSpec : RobolectricUnitSpec() {
     }
 
     @Test
-    fun `should not start HTTP request withou explicit call to doInBackground`() {
+    fun `should not start HTTP request without explicit call to call`() {
         verify<HttpURLConnection>(mockConnection, times(0))
                 .setRequestProperty(eq("Content-Type"), eq("application/json; charset=utf-8"))
         verify<HttpURLConnection>(mockConnection, times(0)).requestMethod = eq("POST")
@@ -0,0 +1,61 @@
+package com.rakuten.tech.mobile.crash
+
+import org.amshove.kluent.shouldBeLessThan
+import org.amshove.kluent.shouldEqual
+import org.json.JSONArray
+import org.json.JSONObject
+import org.junit.Test
+import java.io.ByteArrayOutputStream
+
+class CborWriterSpec : RobolectricUnitSpec() {
+
+    @Test
+    fun `should encode integers in shortest form`() {
+        encode(0).shouldEqual("00")
+        encode(23).shouldEqual("17")
+        encode(24).shouldEqual("1818")
+        encode(1000).shouldEqual("1903e8")
+        encode(1000000000000L).shouldEqual("1b000000e8d4a51000")
+    }
+
+    @Test
+    fun `should encode negative integers`() {
+        encode(-1).shouldEqual("20")
+        encode(-1000).shouldEqual("3903e7")
+    }
+
+    @Test
+    fun `should encode simple values and doubles`() {
+        encode(true).shouldEqual("f5")
+        encode(false).shouldEqual("f4")
+        encode(JSONObject.NULL).shouldEqual("f6")
+        encode(1.1).shouldEqual("fb3ff199999999999a")
+    }
+
+    @Test
+    fun `should encode strings arrays and objects`() {
+        encode("a").shouldEqual("6161")
+        encode(JSONArray("[1, [2, 3]]")).shouldEqual("8201820203")
+        encode(JSONObject("""{"a": 1}""")).shouldEqual("a1616101")
+    }
+
+    @Test
+    fun `should encode lifecycles smaller than json`() {
+        val lifecycles = JSONArray()
+        repeat(50) {
+            lifecycles.put(JSONObject().put("fg", 1539843000000L + it).put("bg", 1539843005000L + it))
+        }
+        val payload = JSONObject().put("lifecycles", lifecycles)
+
+        val body = ByteArrayOutputStream()
+        CborWriter(body).write(payload)
+
+        body.size().shouldBeLessThan(payload.toString().toByteArray().size)
+    }
+
+    private fun encode(value: Any): String {
+        val body = ByteArrayOutputStream()
+        CborWriter(body).write(value)
+        return body.toByteArray().joinToString("") { String.format("%02x", it) }
+    }
+}
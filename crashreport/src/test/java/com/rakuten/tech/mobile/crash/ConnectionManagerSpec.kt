@@ -0,0 +1,90 @@
+package com.rakuten.tech.mobile.crash
+
+import org.amshove.kluent.shouldBeFalse
+import org.amshove.kluent.shouldBeTrue
+import org.amshove.kluent.shouldEqual
+import org.junit.Test
+import org.mockito.Mockito.`when`
+import org.mockito.Mockito.mock
+import org.mockito.Mockito.times
+import org.mockito.Mockito.verify
+import java.io.ByteArrayInputStream
+import java.io.IOException
+import java.io.InputStream
+import java.net.HttpURLConnection
+import java.net.URL
+
+class ConnectionManagerSpec {
+
+    private val manager = ConnectionManager()
+    private val sessionsUrl = URL("https://test.example.com/sessions")
+
+    private fun connectionTo(url: URL): HttpURLConnection {
+        val connection = mock(HttpURLConnection::class.java)
+        `when`(connection.url).thenReturn(url)
+        return connection
+    }
+
+    @Test
+    fun `should not count first connection to a host as reused`() {
+        manager.open(sessionsUrl)
+
+        manager.openedCount.shouldEqual(1L)
+        manager.reusedCount.shouldEqual(0L)
+    }
+
+    @Test
+    fun `should count connection to a host with a released connection as reused`() {
+        manager.release(connectionTo(sessionsUrl), true)
+
+        manager.open(URL("https://test.example.com/install"))
+
+        manager.reusedCount.shouldEqual(1L)
+    }
+
+    @Test
+    fun `should not count connection to another host as reused`() {
+        manager.release(connectionTo(sessionsUrl), true)
+
+        manager.open(URL("https://config.example.com"))
+
+        manager.reusedCount.shouldEqual(0L)
+    }
+
+    @Test
+    fun `should disconnect connection which is not reusable`() {
+        val connection = connectionTo(sessionsUrl)
+
+        manager.release(connection, false)
+        manager.open(sessionsUrl)
+
+        verify(connection).disconnect()
+        manager.reusedCount.shouldEqual(0L)
+    }
+
+    @Test
+    fun `should keep connection released to the pool connected`() {
+        val connection = connectionTo(sessionsUrl)
+
+        manager.release(connection, true)
+
+        verify(connection, times(0)).disconnect()
+    }
+
+    @Test
+    fun `should drain response to the end`() {
+        val response = ByteArrayInputStream(ByteArray(5000))
+
+        ConnectionManager.drain(response).shouldBeTrue()
+        response.available().shouldEqual(0)
+    }
+
+    @Test
+    fun `should fail to drain unreadable response`() {
+        val response = object : InputStream() {
+            override fun read(): Int = throw IOException()
+        }
+
+        ConnectionManager.drain(response).shouldBeFalse()
+    }
+}
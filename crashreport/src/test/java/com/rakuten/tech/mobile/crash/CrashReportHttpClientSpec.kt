@@ -0,0 +1,110 @@
+package com.rakuten.tech.mobile.crash
+
+import com.rakuten.tech.mobile.crash.tasks.TaskPriority
+import org.amshove.kluent.shouldEqual
+import org.junit.Test
+import org.mockito.Mock
+import org.mockito.Mockito.`when`
+import org.mockito.Mockito.times
+import org.mockito.Mockito.verify
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
+
+class CrashReportHttpClientSpec : RobolectricUnitSpec() {
+    @Mock
+    internal lateinit var request: AsyncHttpPost
+
+    private val client = CrashReportHttpClient.getInstance()
+
+    @Test
+    fun `should complete future with status code`() {
+        `when`(request.call()).thenReturn(200)
+
+        client.post(TaskPriority.LOW, request, null).get(5, TimeUnit.SECONDS).shouldEqual(200)
+    }
+
+    @Test
+    fun `should pass status code and body to callback`() {
+        `when`(request.call()).thenReturn(503)
+        `when`(request.serverMessage).thenReturn("unavailable")
+        var status = 0
+        var body: String? = null
+
+        client.post(TaskPriority.HIGH, request, CrashReportHttpClient.ResponseCallback { statusCode, responseBody ->
+            status = statusCode
+            body = responseBody
+        }).get(5, TimeUnit.SECONDS)
+
+        status.shouldEqual(503)
+        body.shouldEqual("unavailable")
+    }
+
+    @Test
+    fun `should retry failed request until it succeeds`() {
+        `when`(request.call()).thenReturn(503, 200)
+        `when`(request.retryAfterMillis).thenReturn(-1)
+        var calls = 0
+
+        client.post(TaskPriority.LOW, request, RetryPolicy(3, 10, 10), CrashReportHttpClient.ResponseCallback { _, _ ->
+            calls++
+        }).get(5, TimeUnit.SECONDS).shouldEqual(200)
+
+        verify(request, times(2)).call()
+        calls.shouldEqual(1)
+    }
+
+    @Test
+    fun `should respond with last failure once attempts are exhausted`() {
+        `when`(request.call()).thenReturn(503)
+        `when`(request.retryAfterMillis).thenReturn(-1)
+
+        client.post(TaskPriority.LOW, request, RetryPolicy(3, 10, 10), null).get(5, TimeUnit.SECONDS).shouldEqual(503)
+
+        verify(request, times(3)).call()
+    }
+
+    @Test
+    fun `should not retry client error`() {
+        `when`(request.call()).thenReturn(400)
+
+        client.post(TaskPriority.LOW, request, RetryPolicy(3, 10, 10), null).get(5, TimeUnit.SECONDS).shouldEqual(400)
+
+        verify(request, times(1)).call()
+    }
+
+    @Test(expected = ExecutionException::class)
+    fun `should fail future when request throws`() {
+        `when`(request.call()).thenThrow(IllegalStateException())
+
+        client.post(TaskPriority.LOW, request, null).get(5, TimeUnit.SECONDS)
+    }
+
+    @Test
+    fun `should retry and call back with failure status when request throws`() {
+        `when`(request.call()).thenThrow(IllegalStateException())
+        `when`(request.retryAfterMillis).thenReturn(-1)
+        var status = 0
+
+        try {
+            client.post(TaskPriority.LOW, request, RetryPolicy(3, 10, 10), CrashReportHttpClient.ResponseCallback { statusCode, _ ->
+                status = statusCode
+            }).get(5, TimeUnit.SECONDS)
+        } catch (e: ExecutionException) {
+            // Expected, the future still holds the failure.
+        }
+
+        verify(request, times(3)).call()
+        status.shouldEqual(503)
+    }
+
+    @Test(expected = TimeoutException::class)
+    fun `should time out future of pending request`() {
+        `when`(request.call()).thenAnswer {
+            Thread.sleep(1000)
+            200
+        }
+
+        client.post(TaskPriority.LOW, request, null).get(10, TimeUnit.MILLISECONDS)
+    }
+}
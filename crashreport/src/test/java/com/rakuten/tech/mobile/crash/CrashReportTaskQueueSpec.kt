@@ -1,12 +1,17 @@
 package com.rakuten.tech.mobile.crash
 
 import com.rakuten.tech.mobile.crash.tasks.BackgroundTask
+import com.rakuten.tech.mobile.crash.tasks.CrashReportTask
 import com.rakuten.tech.mobile.crash.tasks.FlushLifecyclesTask
 import com.rakuten.tech.mobile.crash.tasks.ForegroundTask
+import com.rakuten.tech.mobile.crash.tasks.GetConfigTask
 import com.rakuten.tech.mobile.crash.tasks.NewInstallTask
+import com.rakuten.tech.mobile.crash.tasks.TaskCodec
+import org.amshove.kluent.shouldBeFalse
 import org.amshove.kluent.shouldBeInstanceOf
 import org.amshove.kluent.shouldBeTrue
 import org.amshove.kluent.shouldEqual
+import org.amshove.kluent.shouldNotBe
 import org.junit.Test
 
 class CrashReportTaskQueueSpec {
@@ -63,24 +68,219 @@ class CrashReportTaskQueueSpec {
         queue.enqueue(flushTask)
         queue.enqueue(foregroundTask)
         queue.enqueue(backgroundTask)
-        queue.enqueue(installTask)
 
         queue.dequeue().shouldBeInstanceOf(FlushLifecyclesTask::class)
         queue.dequeue().shouldBeInstanceOf(ForegroundTask::class)
         queue.dequeue().shouldBeInstanceOf(BackgroundTask::class)
-        queue.dequeue().shouldBeInstanceOf(NewInstallTask::class)
     }
 
     @Test
-    fun `should dequeue in specific order if enqueued in different order`() {
+    fun `should dequeue higher priority tasks first`() {
         queue.enqueue(flushTask)
         queue.enqueue(foregroundTask)
-        queue.enqueue(backgroundTask)
         queue.enqueue(installTask)
+        queue.enqueue(GetConfigTask(null))
 
+        queue.dequeue().shouldBeInstanceOf(GetConfigTask::class)
+        queue.dequeue().shouldBeInstanceOf(NewInstallTask::class)
         queue.dequeue().shouldBeInstanceOf(FlushLifecyclesTask::class)
         queue.dequeue().shouldBeInstanceOf(ForegroundTask::class)
+    }
+
+    @Test
+    fun `should drop newest task when full`() {
+        queue.setOverflowPolicy(QueueOverflowPolicy.DROP_NEWEST)
+        fillQueue()
+
+        queue.offer(flushTask).shouldBeFalse()
+
+        queue.droppedCount.shouldEqual(1L)
+        queue.dequeue().shouldEqual(foregroundTaskAt(0))
+    }
+
+    @Test
+    fun `should drop oldest task when full`() {
+        queue.setOverflowPolicy(QueueOverflowPolicy.DROP_OLDEST)
+        fillQueue()
+
+        queue.offer(flushTask).shouldBeTrue()
+
+        queue.droppedCount.shouldEqual(1L)
+        queue.dequeue().shouldEqual(foregroundTaskAt(1))
+    }
+
+    @Test
+    fun `should coalesce task of a type already queued when full`() {
+        queue.setOverflowPolicy(QueueOverflowPolicy.COALESCE)
+        queue.offer(flushTask)
+        while (queue.size() < 64) {
+            queue.enqueue(backgroundTask)
+        }
+
+        queue.offer(FlushLifecyclesTask()).shouldBeTrue()
+
+        queue.coalescedCount.shouldEqual(1L)
+    }
+
+    @Test
+    fun `should spill to disk when full and dequeue spilled tasks last`() {
+        queue.setOverflowPolicy(QueueOverflowPolicy.SPILL_TO_DISK)
+        queue.setSpillDirectory(createTempDir())
+        fillQueue()
+
+        queue.offer(flushTask).shouldBeTrue()
+
+        queue.spilledCount.shouldEqual(1L)
+        repeat(queue.size()) { queue.dequeue().shouldBeInstanceOf(ForegroundTask::class) }
+        queue.dequeue().shouldBeInstanceOf(FlushLifecyclesTask::class)
+    }
+
+    @Test
+    fun `should journal held background event`() {
+        val directory = createTempDir()
+        queue.setJournal(TaskJournal.open(directory)!!)
+
+        queue.offer(BackgroundTask(1L))
+
+        TaskJournal.open(directory)!!.replay().map { TaskCodec.encode(it) }
+            .shouldEqual(listOf(TaskCodec.encode(BackgroundTask(1L))))
+    }
+
+    @Test
+    fun `should dequeue higher priority tasks before spilled tasks`() {
+        queue.setOverflowPolicy(QueueOverflowPolicy.SPILL_TO_DISK)
+        queue.setSpillDirectory(createTempDir())
+        fillQueue()
+        queue.offer(flushTask)
+
+        queue.offer(installTask).shouldBeTrue()
+
+        queue.spilledCount.shouldEqual(1L)
+        queue.dequeue().shouldEqual(installTask)
+    }
+
+    @Test
+    fun `should drop oldest task when full and task cannot be spilled`() {
+        queue.setOverflowPolicy(QueueOverflowPolicy.SPILL_TO_DISK)
+        queue.setSpillDirectory(createTempDir())
+        val first = GetConfigTask(null)
+        queue.offer(first)
+        while (queue.size() < 64) {
+            queue.offer(GetConfigTask(null))
+        }
+        val last = GetConfigTask(null)
+
+        queue.offer(last).shouldBeTrue()
+
+        queue.spilledCount.shouldEqual(0L)
+        queue.droppedCount.shouldEqual(1L)
+        queue.metrics[CrashReportTask.TaskType.GET_CONFIG]!!.droppedCount.shouldEqual(1L)
+        queue.dequeue().shouldNotBe(first)
+    }
+
+    @Test
+    fun `should drop background and foreground pair within session gap`() {
+        val now = System.currentTimeMillis()
+
+        queue.offer(BackgroundTask(now)).shouldBeTrue()
+        queue.offer(ForegroundTask(now + 100)).shouldBeTrue()
+
+        queue.coalescedCount.shouldEqual(2L)
+        queue.size().shouldEqual(0)
+    }
+
+    @Test
+    fun `should keep background and foreground pair beyond session gap in order`() {
+        val now = System.currentTimeMillis()
+
+        queue.offer(BackgroundTask(now)).shouldBeTrue()
+        queue.offer(ForegroundTask(now + CrashReportConstants.SESSION_GAP_MILLIS + 1)).shouldBeTrue()
+
+        queue.coalescedCount.shouldEqual(0L)
+        queue.dequeue().shouldBeInstanceOf(BackgroundTask::class)
+        queue.dequeue().shouldBeInstanceOf(ForegroundTask::class)
+    }
+
+    @Test
+    fun `should release held background task once session gap passed`() {
+        queue.offer(BackgroundTask(0)).shouldBeTrue()
+
         queue.dequeue().shouldBeInstanceOf(BackgroundTask::class)
-        queue.dequeue().shouldBeInstanceOf(NewInstallTask::class)
     }
-}
\ No newline at end of file
+
+    @Test
+    fun `should record current and peak depth per task type`() {
+        queue.enqueue(installTask)
+        queue.enqueue(NewInstallTask())
+        queue.dequeue()
+
+        val metrics = queue.metrics[CrashReportTask.TaskType.NEW_INSTALL]!!
+        metrics.depth.shouldEqual(1)
+        metrics.peakDepth.shouldEqual(2)
+    }
+
+    @Test
+    fun `should record time in queue of dequeued tasks`() {
+        queue.enqueue(installTask)
+        queue.dequeue()
+
+        queue.metrics[CrashReportTask.TaskType.NEW_INSTALL]!!.timeInQueue.count.shouldEqual(1L)
+        queue.metrics[CrashReportTask.TaskType.FOREGROUND]!!.timeInQueue.count.shouldEqual(0L)
+    }
+
+    @Test
+    fun `should record dropped tasks per task type`() {
+        queue.setOverflowPolicy(QueueOverflowPolicy.DROP_OLDEST)
+        fillQueue()
+
+        queue.offer(flushTask)
+
+        queue.metrics[CrashReportTask.TaskType.FOREGROUND]!!.droppedCount.shouldEqual(1L)
+        queue.metrics[CrashReportTask.TaskType.FLUSH_LIFECYCLES]!!.droppedCount.shouldEqual(0L)
+    }
+
+    @Test
+    fun `should record coalesced tasks per task type`() {
+        queue.setOverflowPolicy(QueueOverflowPolicy.COALESCE)
+        queue.offer(flushTask)
+        while (queue.size() < 64) {
+            queue.enqueue(backgroundTask)
+        }
+
+        queue.offer(FlushLifecyclesTask())
+
+        queue.metrics[CrashReportTask.TaskType.FLUSH_LIFECYCLES]!!.coalescedCount.shouldEqual(1L)
+        queue.metrics[CrashReportTask.TaskType.BACKGROUND]!!.coalescedCount.shouldEqual(0L)
+    }
+
+    @Test
+    fun `should record offers applying the overflow policy`() {
+        queue.setOverflowPolicy(QueueOverflowPolicy.DROP_NEWEST)
+        fillQueue()
+
+        queue.offer(flushTask)
+
+        queue.metrics[CrashReportTask.TaskType.FLUSH_LIFECYCLES]!!.blockedEnqueueCount.shouldEqual(1L)
+    }
+
+    @Test
+    fun `should record processing latency`() {
+        queue.recordProcessing(installTask, 3000)
+
+        val latency = queue.metrics[CrashReportTask.TaskType.NEW_INSTALL]!!.processingLatency
+        latency.count.shouldEqual(1L)
+        latency.maxNanos.shouldEqual(3000L)
+        latency.getPercentileMicros(50.0).shouldEqual(4L)
+    }
+
+    private val foregroundTasks = HashMap<Int, ForegroundTask>()
+
+    private fun foregroundTaskAt(index: Int) = foregroundTasks.getOrPut(index) { ForegroundTask(index.toLong()) }
+
+    private fun fillQueue() {
+        var index = 0
+        while (queue.size() < 64) {
+            queue.enqueue(foregroundTaskAt(index++))
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.rakuten.tech.mobile.crash
+
+import org.amshove.kluent.shouldBeFalse
+import org.amshove.kluent.shouldBeTrue
+import org.junit.Test
+
+class FlushPolicySpec {
+
+    private val policy = FlushPolicy(10, 1000, 60000)
+
+    @Test
+    fun `should hold sessions below all thresholds`() {
+        policy.shouldFlush(9, 999, 59999).shouldBeFalse()
+    }
+
+    @Test
+    fun `should flush sessions once enough are cached`() {
+        policy.shouldFlush(10, 100, 0).shouldBeTrue()
+    }
+
+    @Test
+    fun `should flush sessions once large enough`() {
+        policy.shouldFlush(1, 1000, 0).shouldBeTrue()
+    }
+
+    @Test
+    fun `should flush sessions once oldest is old enough`() {
+        policy.shouldFlush(1, 100, 60000).shouldBeTrue()
+    }
+
+    @Test
+    fun `should not flush without sessions`() {
+        policy.shouldFlush(0, 1000, 60000).shouldBeFalse()
+    }
+}
@@ -0,0 +1,37 @@
+package com.rakuten.tech.mobile.crash
+
+import org.amshove.kluent.shouldEqual
+import org.junit.Test
+
+class LatencyHistogramSpec {
+
+    @Test
+    fun `should bucket latencies in powers of two microseconds`() {
+        LatencyHistogram.bucketOf(500).shouldEqual(0)
+        LatencyHistogram.bucketOf(1000).shouldEqual(1)
+        LatencyHistogram.bucketOf(3999).shouldEqual(2)
+        LatencyHistogram.bucketOf(4000).shouldEqual(3)
+    }
+
+    @Test
+    fun `should count very long latencies in last bucket`() {
+        LatencyHistogram.bucketOf(Long.MAX_VALUE).shouldEqual(LatencyHistogram.BUCKETS - 1)
+    }
+
+    @Test
+    fun `should estimate percentile from bucket upper bound`() {
+        val buckets = LongArray(LatencyHistogram.BUCKETS)
+        buckets[1] = 9
+        buckets[10] = 1
+        val histogram = LatencyHistogram(buckets, 0, 0)
+
+        histogram.count.shouldEqual(10L)
+        histogram.getPercentileMicros(50.0).shouldEqual(2L)
+        histogram.getPercentileMicros(99.0).shouldEqual(1024L)
+    }
+
+    @Test
+    fun `should return zero percentile when empty`() {
+        LatencyHistogram(LongArray(LatencyHistogram.BUCKETS), 0, 0).getPercentileMicros(50.0).shouldEqual(0L)
+    }
+}
@@ -0,0 +1,202 @@
+package com.rakuten.tech.mobile.crash
+
+import com.rakuten.tech.mobile.crash.AsyncHttpPost.CrashServerURL
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.Closeable
+import java.io.EOFException
+import java.io.IOException
+import java.io.InputStream
+import java.io.OutputStream
+import java.net.InetAddress
+import java.net.ServerSocket
+import java.net.Socket
+import java.net.URL
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import java.util.zip.GZIPInputStream
+
+/**
+ * HTTP server on 127.0.0.1 answering requests sent by the default transport, so uploads go through the real
+ * request body streaming, compression and connection reuse, and can be checked and measured in JVM tests.
+ * Answers 200 with an empty body unless given another handler.
+ *
+ * Requests keep their original URL, they are only sent to the loopback server instead. Handlers receive the
+ * original request and the decompressed body.
+ */
+class LoopbackTransport(
+        private val handler: (Transport.Request, ByteArray) -> Transport.Response =
+                { _, _ -> Transport.Response(200, "", emptyMap()) }
+) : Transport, Closeable {
+
+    val requests: MutableList<Transport.Request> = CopyOnWriteArrayList()
+    val bodies: MutableList<ByteArray> = CopyOnWriteArrayList()
+    /** Body bytes received on the wire, before decompression. */
+    val receivedBytes = AtomicLong()
+    val latenciesNanos: MutableList<Long> = CopyOnWriteArrayList()
+    /** Number of TCP connections accepted, lower than the number of requests when connections are kept alive. */
+    val connectionCount = AtomicInteger()
+    val chunkedCount = AtomicInteger()
+    val gzipCount = AtomicInteger()
+
+    private val server = ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"))
+    private val pending = ConcurrentHashMap<String, Transport.Request>()
+    private val nextId = AtomicLong()
+
+    init {
+        daemon("LoopbackServer") {
+            while (!server.isClosed) {
+                val socket = try {
+                    server.accept()
+                } catch (e: IOException) {
+                    break
+                }
+                connectionCount.incrementAndGet()
+                daemon("LoopbackConnection") { serve(socket) }
+            }
+        }
+    }
+
+    override fun post(request: Transport.Request): Transport.Response {
+        val id = nextId.incrementAndGet().toString()
+        pending[id] = request
+        val loopbackUrl = CrashServerURL(URL("http", "127.0.0.1", server.localPort, request.url.file))
+        val forwarded = object : Transport.Request(loopbackUrl, request.headers + (HEADER_ID to id),
+                request.timeoutMillis, request.compressionMinSize, request.maxResponseSize) {
+            override fun writeBody(stream: OutputStream) = request.writeBody(stream)
+        }
+
+        val start = System.nanoTime()
+        try {
+            return HttpUrlConnectionTransport.INSTANCE.post(forwarded)
+        } finally {
+            latenciesNanos.add(System.nanoTime() - start)
+            pending.remove(id)
+        }
+    }
+
+    override fun close() {
+        server.close()
+    }
+
+    /**
+     * Answers requests read from the connection until the client closes it.
+     */
+    private fun serve(socket: Socket) {
+        try {
+            socket.use { answer(it) }
+        } catch (e: IOException) {
+            // Closed by the client, such as after a timeout.
+        }
+    }
+
+    private fun answer(socket: Socket) {
+        val input = socket.getInputStream().buffered()
+        val output = socket.getOutputStream().buffered()
+        while (true) {
+            val requestLine = readLine(input) ?: return
+            if (requestLine.isEmpty()) {
+                continue
+            }
+            val headers = readHeaders(input)
+
+            val chunked = headers["transfer-encoding"].equals("chunked", ignoreCase = true)
+            val wire = if (chunked) readChunks(input) else readFully(input, headers["content-length"]?.toInt() ?: 0)
+            val gzip = headers["content-encoding"].equals("gzip", ignoreCase = true)
+            if (chunked) chunkedCount.incrementAndGet()
+            if (gzip) gzipCount.incrementAndGet()
+            receivedBytes.addAndGet(wire.size.toLong())
+            val body = if (gzip) GZIPInputStream(ByteArrayInputStream(wire)).readBytes() else wire
+
+            val request = headers[HEADER_ID.toLowerCase()]?.let { pending[it] }
+            val response = if (request == null) {
+                Transport.Response(400, "", emptyMap())
+            } else {
+                requests.add(request)
+                bodies.add(body)
+                handler(request, body)
+            }
+            writeResponse(output, response)
+        }
+    }
+
+    private fun writeResponse(output: OutputStream, response: Transport.Response) {
+        val body = (response.body ?: "").toByteArray(Charsets.UTF_8)
+        val head = StringBuilder("HTTP/1.1 ${response.statusCode} Status\r\n")
+                .append("Content-Length: ${body.size}\r\n")
+        val retryAfter = response.getHeader(CrashReportConstants.HEADER_RETRY_AFTER)
+        if (retryAfter != null) {
+            head.append("${CrashReportConstants.HEADER_RETRY_AFTER}: $retryAfter\r\n")
+        }
+        head.append("\r\n")
+        output.write(head.toString().toByteArray(Charsets.US_ASCII))
+        output.write(body)
+        output.flush()
+    }
+
+    private fun readHeaders(input: InputStream): Map<String, String> {
+        val headers = HashMap<String, String>()
+        while (true) {
+            val line = readLine(input) ?: throw EOFException()
+            if (line.isEmpty()) {
+                return headers
+            }
+            val colon = line.indexOf(':')
+            headers[line.substring(0, colon).trim().toLowerCase()] = line.substring(colon + 1).trim()
+        }
+    }
+
+    private fun readChunks(input: InputStream): ByteArray {
+        val body = ByteArrayOutputStream()
+        while (true) {
+            val size = (readLine(input) ?: throw EOFException()).substringBefore(';').trim().toInt(16)
+            if (size == 0) {
+                // Skips trailers.
+                readHeaders(input)
+                return body.toByteArray()
+            }
+            body.write(readFully(input, size))
+            readLine(input)
+        }
+    }
+
+    companion object {
+        private const val HEADER_ID = "X-Loopback-Request"
+
+        private fun daemon(name: String, block: () -> Unit) {
+            val thread = Thread(block, name)
+            thread.isDaemon = true
+            thread.start()
+        }
+
+        /**
+         * @return line without its CRLF ending, or null if the stream ended first.
+         */
+        private fun readLine(input: InputStream): String? {
+            val line = StringBuilder()
+            while (true) {
+                val c = input.read()
+                when (c) {
+                    -1 -> return if (line.isEmpty()) null else line.toString()
+                    '\n'.toInt() -> return line.toString().trimEnd('\r')
+                    else -> line.append(c.toChar())
+                }
+            }
+        }
+
+        private fun readFully(input: InputStream, size: Int): ByteArray {
+            val bytes = ByteArray(size)
+            var read = 0
+            while (read < size) {
+                val count = input.read(bytes, read, size - read)
+                if (count == -1) {
+                    throw EOFException()
+                }
+                read += count
+            }
+            return bytes
+        }
+    }
+}
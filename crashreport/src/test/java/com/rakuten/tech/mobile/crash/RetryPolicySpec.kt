@@ -0,0 +1,67 @@
+package com.rakuten.tech.mobile.crash
+
+import org.amshove.kluent.shouldBeFalse
+import org.amshove.kluent.shouldBeInRange
+import org.amshove.kluent.shouldBeTrue
+import org.amshove.kluent.shouldEqual
+import org.junit.Test
+
+class RetryPolicySpec {
+
+    private val policy = RetryPolicy(4, 1000, 3000)
+
+    @Test
+    fun `should retry server errors, throttling and timeouts`() {
+        RetryPolicy.isRetryable(500).shouldBeTrue()
+        RetryPolicy.isRetryable(503).shouldBeTrue()
+        RetryPolicy.isRetryable(429).shouldBeTrue()
+        RetryPolicy.isRetryable(408).shouldBeTrue()
+    }
+
+    @Test
+    fun `should not retry success and client errors`() {
+        RetryPolicy.isRetryable(200).shouldBeFalse()
+        RetryPolicy.isRetryable(400).shouldBeFalse()
+        RetryPolicy.isRetryable(404).shouldBeFalse()
+    }
+
+    @Test
+    fun `should not retry non retryable status`() {
+        policy.nextDelayMillis(1, 400, -1).shouldEqual(-1L)
+    }
+
+    @Test
+    fun `should jitter delay below exponential bound`() {
+        repeat(100) {
+            policy.nextDelayMillis(1, 503, -1).shouldBeInRange(0L, 999L)
+            policy.nextDelayMillis(2, 503, -1).shouldBeInRange(0L, 1999L)
+        }
+    }
+
+    @Test
+    fun `should cap delay at maximum`() {
+        repeat(100) {
+            policy.nextDelayMillis(3, 503, -1).shouldBeInRange(0L, 2999L)
+        }
+    }
+
+    @Test
+    fun `should stop after maximum attempts`() {
+        policy.nextDelayMillis(4, 503, -1).shouldEqual(-1L)
+    }
+
+    @Test
+    fun `should wait at least for retry after`() {
+        policy.nextDelayMillis(1, 429, 2500).shouldEqual(2500L)
+    }
+
+    @Test
+    fun `should give up when retry after exceeds maximum delay`() {
+        policy.nextDelayMillis(1, 503, 10000).shouldEqual(-1L)
+    }
+
+    @Test
+    fun `should never retry with none policy`() {
+        RetryPolicy.NONE.nextDelayMillis(1, 503, -1).shouldEqual(-1L)
+    }
+}
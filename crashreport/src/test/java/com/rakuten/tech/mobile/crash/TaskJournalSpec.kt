@@ -0,0 +1,71 @@
+package com.rakuten.tech.mobile.crash
+
+import com.rakuten.tech.mobile.crash.tasks.BackgroundTask
+import com.rakuten.tech.mobile.crash.tasks.CrashReportTask
+import com.rakuten.tech.mobile.crash.tasks.FlushLifecyclesTask
+import com.rakuten.tech.mobile.crash.tasks.ForegroundTask
+import com.rakuten.tech.mobile.crash.tasks.TaskCodec
+import org.amshove.kluent.shouldBeEmpty
+import org.amshove.kluent.shouldEqual
+import org.amshove.kluent.shouldNotBeNull
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+class TaskJournalSpec {
+
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    private fun open() = TaskJournal.open(folder.root)!!
+
+    private fun codes(tasks: List<CrashReportTask>) = tasks.map { TaskCodec.encode(it) }
+
+    @Test
+    fun `should map journal file`() {
+        TaskJournal.open(folder.root).shouldNotBeNull()
+    }
+
+    @Test
+    fun `should replay appended tasks in order`() {
+        val journal = open()
+        journal.append(ForegroundTask(1L))
+        journal.append(BackgroundTask(2L))
+
+        codes(open().replay()).shouldEqual(codes(listOf(ForegroundTask(1L), BackgroundTask(2L))))
+    }
+
+    @Test
+    fun `should not replay checkpointed tasks`() {
+        val journal = open()
+        journal.append(ForegroundTask(1L))
+        journal.append(BackgroundTask(2L))
+        journal.checkpoint(ForegroundTask(1L))
+
+        codes(open().replay()).shouldEqual(codes(listOf(BackgroundTask(2L))))
+    }
+
+    @Test
+    fun `should not journal tasks recorded elsewhere`() {
+        open().append(FlushLifecyclesTask())
+
+        open().replay().shouldBeEmpty()
+    }
+
+    @Test
+    fun `should replay tasks only once`() {
+        open().append(ForegroundTask(1L))
+        open().replay()
+
+        open().replay().shouldBeEmpty()
+    }
+
+    @Test
+    fun `should keep saved session`() {
+        open().saveSession(1L, 2L)
+
+        val journal = open()
+        journal.sessionStart.shouldEqual(1L)
+        journal.sessionEnd.shouldEqual(2L)
+    }
+}
@@ -0,0 +1,70 @@
+package com.rakuten.tech.mobile.crash
+
+import org.amshove.kluent.shouldBeFalse
+import org.amshove.kluent.shouldBeNull
+import org.amshove.kluent.shouldBeTrue
+import org.amshove.kluent.shouldEqual
+import org.junit.Test
+import java.util.concurrent.Callable
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+class TaskRingBufferSpec {
+
+    private val buffer = TaskRingBuffer<Int>(4)
+
+    @Test(expected = IllegalArgumentException::class)
+    fun `should reject capacity that is not a power of two`() {
+        TaskRingBuffer<Int>(50)
+    }
+
+    @Test
+    fun `should return null when empty`() {
+        buffer.poll().shouldBeNull()
+    }
+
+    @Test
+    fun `should reject offer when full`() {
+        (1..4).forEach { buffer.offer(it).shouldBeTrue() }
+
+        buffer.offer(5).shouldBeFalse()
+        buffer.size().shouldEqual(4)
+    }
+
+    @Test
+    fun `should keep fifo order across wrap around`() {
+        (1..4).forEach { buffer.offer(it) }
+        buffer.poll().shouldEqual(1)
+        buffer.poll().shouldEqual(2)
+        buffer.offer(5)
+        buffer.offer(6)
+
+        (3..6).forEach { buffer.poll().shouldEqual(it) }
+        buffer.isEmpty().shouldBeTrue()
+    }
+
+    @Test
+    fun `should not lose elements from concurrent producers`() {
+        val ring = TaskRingBuffer<Int>(1024)
+        val producers = 4
+        val perProducer = 200
+        val start = CountDownLatch(1)
+        val executor = Executors.newFixedThreadPool(producers)
+        // Each producer returns its rejected offers, asserted on the test thread.
+        val rejected = (0 until producers).map { p ->
+            executor.submit(Callable {
+                start.await()
+                (0 until perProducer).count { i -> !ring.offer(p * perProducer + i) }
+            })
+        }
+
+        start.countDown()
+        rejected.forEach { it.get(10, TimeUnit.SECONDS).shouldEqual(0) }
+        executor.shutdown()
+
+        val drained = generateSequence { ring.poll() }.toList()
+        drained.size.shouldEqual(producers * perProducer)
+        drained.toSet().size.shouldEqual(producers * perProducer)
+    }
+}
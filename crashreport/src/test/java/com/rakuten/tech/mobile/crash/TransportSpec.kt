@@ -0,0 +1,168 @@
+package com.rakuten.tech.mobile.crash
+
+import com.rakuten.tech.mobile.crash.AsyncHttpPost.CrashServerURL
+import com.rakuten.tech.mobile.crash.tasks.TaskPriority
+import org.amshove.kluent.shouldBeNull
+import org.amshove.kluent.shouldBeTrue
+import org.amshove.kluent.shouldEqual
+import org.json.JSONArray
+import org.json.JSONObject
+import org.junit.After
+import org.junit.Test
+import java.io.IOException
+import java.io.OutputStream
+import java.net.URL
+import java.util.concurrent.TimeUnit
+
+class TransportSpec : RobolectricUnitSpec() {
+
+    private val url = CrashServerURL(URL("https://sessions.example.com"))
+
+    @After
+    fun tearDown() {
+        CrashReportHttpClient.getInstance().setTransport(null)
+        CrashReportHttpClient.getInstance().setCompressionMinSize(-1)
+    }
+
+    @Test
+    fun `should send requests through installed transport`() {
+        val transport = LoopbackTransport()
+        CrashReportHttpClient.getInstance().setTransport(transport)
+
+        AsyncHttpPost(url, JSONObject("""{"fg": 1}""")).call().shouldEqual(200)
+
+        transport.requests[0].url.shouldEqual(URL("https://sessions.example.com"))
+        transport.requests[0].headers["Content-Type"].shouldEqual("application/json; charset=utf-8")
+        String(transport.bodies[0], Charsets.UTF_8).shouldEqual("""{"fg":1}""")
+    }
+
+    @Test
+    fun `should stream records into body on every attempt`() {
+        val transport = LoopbackTransport()
+        CrashReportHttpClient.getInstance().setTransport(transport)
+        val records = listOf(JSONObject("""{"fg": 1}"""), JSONObject("""{"fg": 2}"""))
+        val source = AsyncHttpPost.RecordSource {
+            val iterator = records.iterator()
+            object : AsyncHttpPost.RecordReader {
+                override fun next() = if (iterator.hasNext()) iterator.next() else null
+                override fun close() {}
+            }
+        }
+        val request = AsyncHttpPost(url, JSONObject("""{"device_id": "id"}"""), "lifecycles", source)
+
+        request.call()
+        request.call()
+
+        transport.bodies.map { String(it, Charsets.UTF_8) }.shouldEqual(
+                List(2) { """{"device_id":"id","lifecycles":[{"fg":1},{"fg":2}]}""" })
+    }
+
+    @Test
+    fun `should read response from transport`() {
+        CrashReportHttpClient.getInstance().setTransport(LoopbackTransport { _, _ ->
+            Transport.Response(503, "unavailable", mapOf("retry-after" to "5"))
+        })
+        val request = AsyncHttpPost(url, JSONObject())
+
+        request.call().shouldEqual(503)
+
+        request.retryAfterMillis.shouldEqual(5000L)
+        request.serverMessage.shouldBeNull()
+    }
+
+    @Test
+    fun `should restore default transport`() {
+        CrashReportHttpClient.getInstance().setTransport(LoopbackTransport())
+
+        CrashReportHttpClient.getInstance().setTransport(null)
+
+        (CrashReportHttpClient.getInstance().transport is HttpUrlConnectionTransport).shouldBeTrue()
+    }
+
+    @Test
+    fun `should upload concurrent requests through loopback`() {
+        val transport = LoopbackTransport()
+        CrashReportHttpClient.getInstance().setTransport(transport)
+        val data = JSONObject("""{"lifecycles": [{"fg": 1539843000000, "bg": 1539843005000}]}""")
+        val size = data.toString().toByteArray().size
+
+        val responses = (1..100).map {
+            CrashReportHttpClient.getInstance().post(TaskPriority.NORMAL, AsyncHttpPost(url, data), null)
+        }
+
+        responses.forEach { it.get(5, TimeUnit.SECONDS).shouldEqual(200) }
+        transport.bodies.size.shouldEqual(100)
+        transport.receivedBytes.get().shouldEqual(100L * size)
+        transport.latenciesNanos.size.shouldEqual(100)
+    }
+
+    @Test
+    fun `should send small body with fixed length`() {
+        val transport = LoopbackTransport()
+        CrashReportHttpClient.getInstance().setTransport(transport)
+        CrashReportHttpClient.getInstance().setCompressionMinSize(1024)
+
+        AsyncHttpPost(url, JSONObject("""{"fg": 1}""")).call().shouldEqual(200)
+
+        transport.chunkedCount.get().shouldEqual(0)
+        transport.gzipCount.get().shouldEqual(0)
+    }
+
+    @Test
+    fun `should stream large body in compressed chunks`() {
+        val transport = LoopbackTransport()
+        CrashReportHttpClient.getInstance().setTransport(transport)
+        CrashReportHttpClient.getInstance().setCompressionMinSize(1024)
+        val data = JSONObject().put("lifecycles", JSONArray(List(500) { JSONObject().put("fg", it).put("bg", it + 1) }))
+
+        AsyncHttpPost(url, data).call().shouldEqual(200)
+
+        transport.chunkedCount.get().shouldEqual(1)
+        transport.gzipCount.get().shouldEqual(1)
+        String(transport.bodies[0], Charsets.UTF_8).shouldEqual(data.toString())
+        (transport.receivedBytes.get() < transport.bodies[0].size).shouldBeTrue()
+    }
+
+    @Test
+    fun `should keep connection alive between requests`() {
+        val transport = LoopbackTransport()
+        CrashReportHttpClient.getInstance().setTransport(transport)
+
+        repeat(5) { AsyncHttpPost(url, JSONObject().put("fg", it)).call().shouldEqual(200) }
+
+        transport.bodies.size.shouldEqual(5)
+        transport.connectionCount.get().shouldEqual(1)
+    }
+
+    @Test
+    fun `should keep connection alive after error response`() {
+        val transport = LoopbackTransport { _, _ -> Transport.Response(503, "unavailable", emptyMap()) }
+        CrashReportHttpClient.getInstance().setTransport(transport)
+
+        repeat(3) { AsyncHttpPost(url, JSONObject()).call().shouldEqual(503) }
+
+        transport.connectionCount.get().shouldEqual(1)
+    }
+
+    @Test
+    fun `should send next request after body failed to be written`() {
+        val transport = LoopbackTransport()
+        CrashReportHttpClient.getInstance().setTransport(transport)
+        val failing = object : Transport.Request(url, emptyMap(), 5000, -1, 1024) {
+            override fun writeBody(stream: OutputStream) {
+                // Larger than the stream buffer, so the connection is already open.
+                stream.write(ByteArray(16 * 1024))
+                throw IOException("records unreadable")
+            }
+        }
+
+        try {
+            transport.post(failing)
+        } catch (e: IOException) {
+            // Expected, the connection is disconnected.
+        }
+
+        AsyncHttpPost(url, JSONObject()).call().shouldEqual(200)
+        transport.bodies.size.shouldEqual(1)
+    }
+}
@@ -0,0 +1,54 @@
+package com.rakuten.tech.mobile.crash
+
+import org.amshove.kluent.shouldBeFalse
+import org.amshove.kluent.shouldBeTrue
+import org.junit.Test
+
+class UploadPolicySpec {
+
+    private val policy = UploadPolicy(60000, 2000, 15)
+
+    private val wifi = UploadPolicy.Conditions(true, false, -1, 80, false)
+    private val slowMobile = UploadPolicy.Conditions(true, true, 1000, 80, false)
+    private val fastMobile = UploadPolicy.Conditions(true, true, 10000, 80, false)
+    private val lowBattery = UploadPolicy.Conditions(true, false, -1, 10, false)
+    private val offline = UploadPolicy.Conditions(false, false, -1, 80, false)
+
+    @Test
+    fun `should upload sessions on unmetered network`() {
+        policy.shouldUpload(wifi, false, 0).shouldBeTrue()
+    }
+
+    @Test
+    fun `should upload sessions on fast metered network`() {
+        policy.shouldUpload(fastMobile, false, 0).shouldBeTrue()
+    }
+
+    @Test
+    fun `should defer sessions on slow metered network`() {
+        policy.shouldUpload(slowMobile, false, 0).shouldBeFalse()
+    }
+
+    @Test
+    fun `should defer sessions on low battery unless charging`() {
+        policy.shouldUpload(lowBattery, false, 0).shouldBeFalse()
+        policy.shouldUpload(UploadPolicy.Conditions(true, false, -1, 10, true), false, 0).shouldBeTrue()
+    }
+
+    @Test
+    fun `should defer sessions while offline`() {
+        policy.shouldUpload(offline, false, 0).shouldBeFalse()
+    }
+
+    @Test
+    fun `should upload crashes immediately`() {
+        policy.shouldUpload(slowMobile, true, 0).shouldBeTrue()
+        policy.shouldUpload(lowBattery, true, 0).shouldBeTrue()
+    }
+
+    @Test
+    fun `should upload sessions deferred for too long`() {
+        policy.shouldUpload(slowMobile, false, 59999).shouldBeFalse()
+        policy.shouldUpload(slowMobile, false, 60000).shouldBeTrue()
+    }
+}
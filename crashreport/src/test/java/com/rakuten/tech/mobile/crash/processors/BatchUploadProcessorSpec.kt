@@ -0,0 +1,133 @@
+package com.rakuten.tech.mobile.crash.processors
+
+import android.preference.PreferenceManager
+import com.rakuten.tech.mobile.crash.CrashReportConstants
+import com.rakuten.tech.mobile.crash.CrashReportHttpClient
+import com.rakuten.tech.mobile.crash.FlushPolicy
+import com.rakuten.tech.mobile.crash.LoopbackTransport
+import com.rakuten.tech.mobile.crash.RobolectricUnitSpec
+import com.rakuten.tech.mobile.crash.Transport
+import com.rakuten.tech.mobile.crash.UploadPolicy
+import com.rakuten.tech.mobile.crash.tasks.BackgroundTask
+import com.rakuten.tech.mobile.crash.tasks.BatchUploadTask
+import com.rakuten.tech.mobile.crash.tasks.ForegroundTask
+import org.amshove.kluent.shouldBeFalse
+import org.amshove.kluent.shouldBeTrue
+import org.amshove.kluent.shouldEqual
+import org.amshove.kluent.shouldNotBeNull
+import org.json.JSONObject
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.robolectric.RuntimeEnvironment
+
+class BatchUploadProcessorSpec : RobolectricUnitSpec() {
+
+    private val context = RuntimeEnvironment.application
+    private val prefs = PreferenceManager.getDefaultSharedPreferences(context)
+    private val batchProcessor = BatchUploadProcessor.getInstance()
+    private val sessionProcessor = SessionLifecycleProcessor.getInstance()
+    private val installProcessor = ReportInstallEventProcessor.getInstance()
+
+    @Before
+    fun setUp() {
+        prefs.edit().clear().commit()
+        sessionProcessor.reset()
+        batchProcessor.setBatchUrl("https://batch.example.com")
+    }
+
+    @After
+    fun tearDown() {
+        CrashReportHttpClient.getInstance().setTransport(null)
+        sessionProcessor.setFlushPolicy(FlushPolicy.DEFAULT)
+        sessionProcessor.setUploadPolicy(UploadPolicy.DEFAULT)
+        batchProcessor.setBatchUrl(null)
+        sessionProcessor.reset()
+    }
+
+    @Test
+    fun `should send install event and sessions in one envelope`() {
+        val transport = acknowledging(200, 200)
+        cacheSession(1000, 2000)
+
+        batchProcessor.processTask(context, BatchUploadTask())
+
+        eventually { transport.bodies.size.shouldEqual(1) }
+        val envelope = JSONObject(String(transport.bodies[0], Charsets.UTF_8))
+        envelope.getString(CrashReportConstants.APP_ID).shouldEqual(context.packageName)
+        envelope.getJSONObject(CrashReportConstants.INSTALL).has(CrashReportConstants.APP_ID).shouldBeFalse()
+        val sessions = envelope.getJSONArray(CrashReportConstants.SESSIONS)
+        sessions.length().shouldEqual(1)
+        sessions.getJSONObject(0).getLong(CrashReportConstants.FG).shouldEqual(1000L)
+        sessions.getJSONObject(0).getLong(CrashReportConstants.BG).shouldEqual(2000L)
+    }
+
+    @Test
+    fun `should acknowledge each section on its own`() {
+        acknowledging(200, 503)
+        cacheSession(1000, 2000)
+
+        batchProcessor.processTask(context, BatchUploadTask())
+
+        // The install event is reported, while the rejected sessions are kept to be sent again.
+        eventually {
+            installProcessor.isNewInstall(context).shouldBeFalse()
+            sessionProcessor.claimLifecycles(context).shouldNotBeNull()
+        }
+    }
+
+    @Test
+    fun `should keep both sections when server does not acknowledge them`() {
+        val transport = LoopbackTransport { _, _ -> Transport.Response(200, "", emptyMap()) }
+        CrashReportHttpClient.getInstance().setTransport(transport)
+        cacheSession(1000, 2000)
+
+        batchProcessor.processTask(context, BatchUploadTask())
+
+        eventually { sessionProcessor.claimLifecycles(context).shouldNotBeNull() }
+        installProcessor.isNewInstall(context).shouldBeTrue()
+    }
+
+    @Test
+    fun `should fall back to separate uploads without batch url`() {
+        batchProcessor.setBatchUrl(null)
+
+        batchProcessor.isEnabled.shouldBeFalse()
+    }
+
+    private fun acknowledging(installStatus: Int, sessionsStatus: Int): LoopbackTransport {
+        val acknowledgments = JSONObject()
+                .put(CrashReportConstants.INSTALL, JSONObject().put(CrashReportConstants.STATUS_CODE, installStatus))
+                .put(CrashReportConstants.SESSIONS, JSONObject().put(CrashReportConstants.STATUS_CODE, sessionsStatus))
+        val transport = LoopbackTransport { _, _ -> Transport.Response(200, acknowledgments.toString(), emptyMap()) }
+        CrashReportHttpClient.getInstance().setTransport(transport)
+        return transport
+    }
+
+    /**
+     * Caches a session, recorded once the app returns to foreground after the session gap, then lowers the flush
+     * thresholds and upload conditions so the next upload sends it.
+     */
+    private fun cacheSession(start: Long, end: Long) {
+        sessionProcessor.processTask(context, ForegroundTask(start))
+        sessionProcessor.processTask(context, BackgroundTask(end))
+        sessionProcessor.processTask(context, ForegroundTask(end + CrashReportConstants.SESSION_GAP_MILLIS + 1))
+        sessionProcessor.setFlushPolicy(FlushPolicy(1, Long.MAX_VALUE, Long.MAX_VALUE))
+        sessionProcessor.setUploadPolicy(UploadPolicy(0, 0, 0))
+    }
+
+    private fun eventually(assertion: () -> Unit) {
+        val deadline = System.currentTimeMillis() + 5000
+        while (true) {
+            try {
+                assertion()
+                return
+            } catch (e: AssertionError) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw e
+                }
+                Thread.sleep(10)
+            }
+        }
+    }
+}
@@ -3,14 +3,18 @@ package com.rakuten.tech.mobile.crash.processors
 import android.content.SharedPreferences
 import android.preference.PreferenceManager
 import com.rakuten.tech.mobile.crash.CrashReportConstants
+import com.rakuten.tech.mobile.crash.CrashReportHttpClient
+import com.rakuten.tech.mobile.crash.FlushPolicy
 import com.rakuten.tech.mobile.crash.RobolectricUnitSpec
 import com.rakuten.tech.mobile.crash.processors.ConfigProcessor.OnConfigSuccessCallback
 import org.amshove.kluent.shouldBeFalse
 import org.amshove.kluent.shouldBeNull
 import org.amshove.kluent.shouldBeTrue
+import org.amshove.kluent.shouldEqual
 import org.amshove.kluent.shouldNotBeNullOrBlank
 import org.json.JSONException
 import org.json.JSONObject
+import org.junit.After
 import org.junit.Before
 import org.junit.Test
 import org.robolectric.RuntimeEnvironment
@@ -50,6 +54,15 @@ class ConfigProcessorSpec : RobolectricUnitSpec() {
         prefs.edit().clear().commit()
     }
 
+    @After
+    fun tearDown() {
+        CrashReportHttpClient.getInstance().compressionMinSize = -1
+        CrashReportHttpClient.getInstance().isCborEnabled = false
+        BatchUploadProcessor.getInstance().setBatchUrl(null)
+        SessionLifecycleProcessor.getInstance().setServerFlushPolicy(null)
+        SessionLifecycleProcessor.getInstance().setFlushPolicy(FlushPolicy.DEFAULT)
+    }
+
     // base of every config response
     private fun response(): JSONObject {
         return JSONObject("""
@@ -309,6 +322,215 @@ class ConfigProcessorSpec : RobolectricUnitSpec() {
         installEndpoint.shouldNotBeNullOrBlank()
     }
 
+    @Test
+    fun `should compress requests when server accepts gzip`() {
+        val data = response().merge("""
+            {
+                "override": false,
+                "sticky": false,
+                "enabled": true,
+                "compression": "gzip",
+                "compression_min_size": 512
+            }
+            """)
+
+        configProcessor.updateHostConfig(context, data, callback)
+
+        CrashReportHttpClient.getInstance().compressionMinSize.shouldEqual(512)
+    }
+
+    @Test
+    fun `should not compress requests when server does not accept gzip`() {
+        CrashReportHttpClient.getInstance().compressionMinSize = 0
+        val data = response().merge("""
+            {
+                "override": false,
+                "sticky": false,
+                "enabled": true
+            }
+            """)
+
+        configProcessor.updateHostConfig(context, data, callback)
+
+        CrashReportHttpClient.getInstance().compressionMinSize.shouldEqual(-1)
+    }
+
+    @Test
+    fun `should encode requests as cbor when server accepts it`() {
+        val data = response().merge("""
+            {
+                "override": false,
+                "sticky": false,
+                "enabled": true,
+                "encoding": "cbor"
+            }
+            """)
+
+        configProcessor.updateHostConfig(context, data, callback)
+
+        CrashReportHttpClient.getInstance().isCborEnabled.shouldBeTrue()
+    }
+
+    @Test
+    fun `should encode requests as json without encoding`() {
+        CrashReportHttpClient.getInstance().isCborEnabled = true
+        val data = response().merge("""
+            {
+                "override": false,
+                "sticky": false,
+                "enabled": true
+            }
+            """)
+
+        configProcessor.updateHostConfig(context, data, callback)
+
+        CrashReportHttpClient.getInstance().isCborEnabled.shouldBeFalse()
+    }
+
+    @Test
+    fun `should apply flush thresholds sent by server over local ones`() {
+        SessionLifecycleProcessor.getInstance().setFlushPolicy(FlushPolicy(10, 1000, 60000))
+        val data = response().merge("""
+            {
+                "override": false,
+                "sticky": false,
+                "enabled": true,
+                "flush_max_records": 200
+            }
+            """)
+
+        configProcessor.updateHostConfig(context, data, callback)
+
+        val policy = SessionLifecycleProcessor.getInstance().flushPolicy
+        policy.maxRecords.shouldEqual(200)
+        policy.maxBytes.shouldEqual(1000L)
+        policy.maxAgeMillis.shouldEqual(60000L)
+    }
+
+    @Test
+    fun `should take flush thresholds not sent by server from local ones set later`() {
+        val data = response().merge("""
+            {
+                "override": false,
+                "sticky": false,
+                "enabled": true,
+                "flush_max_records": 200
+            }
+            """)
+
+        configProcessor.updateHostConfig(context, data, callback)
+        SessionLifecycleProcessor.getInstance().setFlushPolicy(FlushPolicy(10, 2000, 120000))
+
+        val policy = SessionLifecycleProcessor.getInstance().flushPolicy
+        policy.maxRecords.shouldEqual(200)
+        policy.maxBytes.shouldEqual(2000L)
+        policy.maxAgeMillis.shouldEqual(120000L)
+    }
+
+    @Test
+    fun `should clamp flush thresholds sent by server`() {
+        val data = response().merge("""
+            {
+                "override": false,
+                "sticky": false,
+                "enabled": true,
+                "flush_max_records": 0,
+                "flush_max_bytes": 1000000000,
+                "flush_max_age_millis": -1
+            }
+            """)
+
+        configProcessor.updateHostConfig(context, data, callback)
+
+        val policy = SessionLifecycleProcessor.getInstance().flushPolicy
+        policy.maxRecords.shouldEqual(5)
+        policy.maxBytes.shouldEqual(1024 * 1024L)
+        policy.maxAgeMillis.shouldEqual(60 * 60 * 1000L)
+    }
+
+    @Test
+    fun `should use local flush thresholds without server ones`() {
+        val local = FlushPolicy(10, 1000, 60000)
+        SessionLifecycleProcessor.getInstance().setFlushPolicy(local)
+        SessionLifecycleProcessor.getInstance().setServerFlushPolicy(FlushPolicy(200, 1000, 60000))
+        val data = response().merge("""
+            {
+                "override": false,
+                "sticky": false,
+                "enabled": true
+            }
+            """)
+
+        configProcessor.updateHostConfig(context, data, callback)
+
+        SessionLifecycleProcessor.getInstance().flushPolicy.shouldEqual(local)
+    }
+
+    @Test
+    fun `should enable batch uploads when server provides batch endpoint`() {
+        val data = response().merge("""
+            {
+                "override": false,
+                "sticky": false,
+                "enabled": true
+            }
+            """)
+        data.getJSONObject("endpoints").put("batch", "https://test.example.com/batch")
+
+        configProcessor.updateHostConfig(context, data, callback)
+
+        BatchUploadProcessor.getInstance().isEnabled.shouldBeTrue()
+    }
+
+    @Test
+    fun `should not enable batch uploads without batch endpoint`() {
+        BatchUploadProcessor.getInstance().setBatchUrl("https://test.example.com/batch")
+        val data = response().merge("""
+            {
+                "override": false,
+                "sticky": false,
+                "enabled": true
+            }
+            """)
+
+        configProcessor.updateHostConfig(context, data, callback)
+
+        BatchUploadProcessor.getInstance().isEnabled.shouldBeFalse()
+    }
+
+    @Test
+    fun `should parse only used configurations from server response`() {
+        val config = ConfigProcessor.parseServerConfig("""
+            {
+                "meta": {"version": [1, 2]},
+                "data": {
+                    "override": false,
+                    "sticky": true,
+                    "enabled": true,
+                    "unused": {"key": "value"},
+                    "endpoints": {
+                        "install": "https://install.example.com",
+                        "sessions": "https://sessions.example.com",
+                        "unused": "https://unused.example.com"
+                    }
+                }
+            }
+            """)!!
+
+        config.getBoolean(CrashReportConstants.OVERRIDE).shouldBeFalse()
+        config.getBoolean(CrashReportConstants.STICKY).shouldBeTrue()
+        config.getBoolean(CrashReportConstants.ENABLED).shouldBeTrue()
+        config.has("unused").shouldBeFalse()
+        val endpoints = config.getJSONObject(CrashReportConstants.ENDPOINTS)
+        endpoints.getString(CrashReportConstants.INSTALL).shouldEqual("https://install.example.com")
+        endpoints.has("unused").shouldBeFalse()
+    }
+
+    @Test
+    fun `should not parse server response without data`() {
+        ConfigProcessor.parseServerConfig("""{"error": "unavailable"}""").shouldBeNull()
+    }
+
     private fun JSONObject.merge(string: String): JSONObject {
         val other = JSONObject(string)
         for (key in other.keys()) {
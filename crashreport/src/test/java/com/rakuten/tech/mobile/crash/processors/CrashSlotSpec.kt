@@ -0,0 +1,66 @@
+package com.rakuten.tech.mobile.crash.processors
+
+import com.rakuten.tech.mobile.crash.RobolectricUnitSpec
+import org.amshove.kluent.shouldBeFalse
+import org.amshove.kluent.shouldBeTrue
+import org.amshove.kluent.shouldEqual
+import org.amshove.kluent.shouldStartWith
+import org.junit.Test
+import java.io.File
+import java.io.IOException
+
+class CrashSlotSpec : RobolectricUnitSpec() {
+
+    private val file = File(createTempDir(), "crash.slot")
+    private val slot = CrashSlot.open(file)!!
+
+    @Test
+    fun `should reserve empty slot`() {
+        file.length().shouldEqual(CrashSlot.SIZE.toLong())
+        slot.isCommitted.shouldBeFalse()
+    }
+
+    @Test
+    fun `should read written crash after reopening`() {
+        slot.write(1, 2, IllegalStateException("crash", IOException("cause")))
+
+        val reopened = CrashSlot.open(file)!!
+        reopened.isCommitted.shouldBeTrue()
+        reopened.foregroundTime.shouldEqual(1L)
+        reopened.backgroundTime.shouldEqual(2L)
+        reopened.stackTrace.shouldStartWith("java.lang.IllegalStateException: crash\n\tat ")
+        reopened.stackTrace.contains("Caused by: java.io.IOException: cause\n").shouldBeTrue()
+    }
+
+    @Test
+    fun `should write stack frames like printed stack traces`() {
+        val error = Error("crash")
+        error.stackTrace = arrayOf(
+                StackTraceElement("com.example.Foo", "bar", "Foo.java", 42),
+                StackTraceElement("com.example.Foo", "baz", null, -1))
+
+        slot.write(1, 2, error)
+
+        slot.stackTrace.shouldEqual(
+                "java.lang.Error: crash\n\tat com.example.Foo.bar(Foo.java:42)\n\tat com.example.Foo.baz(Unknown Source)\n")
+    }
+
+    @Test
+    fun `should truncate long stack traces`() {
+        val error = Error("crash")
+        error.stackTrace = Array(1000) { StackTraceElement("com.example.Foo", "bar", "Foo.java", it) }
+
+        slot.write(1, 2, error)
+
+        slot.stackTrace.length.shouldEqual(5000)
+    }
+
+    @Test
+    fun `should be empty once cleared`() {
+        slot.write(1, 2, Error("crash"))
+
+        slot.clear()
+
+        CrashSlot.open(file)!!.isCommitted.shouldBeFalse()
+    }
+}
@@ -0,0 +1,107 @@
+package com.rakuten.tech.mobile.crash.processors
+
+import com.rakuten.tech.mobile.crash.RobolectricUnitSpec
+import org.amshove.kluent.shouldBeFalse
+import org.amshove.kluent.shouldBeTrue
+import org.amshove.kluent.shouldEqual
+import org.json.JSONObject
+import org.junit.Test
+import java.io.File
+import java.io.RandomAccessFile
+
+class LifecycleLogSpec : RobolectricUnitSpec() {
+
+    private val directory = createTempDir()
+    private val file = File(directory, "lifecycle.log")
+    private val log = LifecycleLog(file)
+
+    @Test
+    fun `should read appended records in order`() {
+        log.append(JSONObject("""{"fg": 1, "bg": 2}"""), false)
+        log.append(JSONObject("""{"fg": 3, "bg": 4}"""), true)
+
+        readAll().shouldEqual(listOf("""{"fg":1,"bg":2}""", """{"fg":3,"bg":4}"""))
+    }
+
+    @Test
+    fun `should keep separators within records`() {
+        log.append(JSONObject("""{"crash_details": {"stack_trace": "a##b"}}"""), false)
+
+        readAll().shouldEqual(listOf("""{"crash_details":{"stack_trace":"a##b"}}"""))
+    }
+
+    @Test
+    fun `should skip corrupt record`() {
+        log.append(JSONObject("""{"fg": 1}"""), false)
+        log.append(JSONObject("""{"fg": 2}"""), false)
+
+        RandomAccessFile(file, "rw").use {
+            it.seek(LifecycleLog.HEADER_SIZE + 8L + 2)
+            it.write('9'.toInt())
+        }
+
+        readAll().shouldEqual(listOf("""{"fg":2}"""))
+    }
+
+    @Test
+    fun `should end at record cut short`() {
+        log.append(JSONObject("""{"fg": 1}"""), false)
+        log.append(JSONObject("""{"fg": 2}"""), false)
+
+        RandomAccessFile(file, "rw").use { it.setLength(it.length() - 2) }
+
+        readAll().shouldEqual(listOf("""{"fg":1}"""))
+    }
+
+    @Test
+    fun `should read records appended after truncated record`() {
+        log.append(JSONObject("""{"fg": 1}"""), false)
+        log.append(JSONObject("""{"fg": 2}"""), false)
+        RandomAccessFile(file, "rw").use { it.setLength(it.length() - 2) }
+
+        log.truncateIncompleteRecord()
+        log.append(JSONObject("""{"fg": 3}"""), false)
+
+        readAll().shouldEqual(listOf("""{"fg":1}""", """{"fg":3}"""))
+    }
+
+    @Test
+    fun `should count records without record cut short`() {
+        log.append(JSONObject("""{"fg": 1}"""), false)
+        log.append(JSONObject("""{"fg": 2}"""), false)
+
+        RandomAccessFile(file, "rw").use { it.setLength(it.length() - 2) }
+
+        log.count().shouldEqual(1)
+    }
+
+    @Test
+    fun `should discard file of unknown format`() {
+        file.writeText("""{"fg":1}##""")
+
+        LifecycleLog(file).isEmpty.shouldBeTrue()
+    }
+
+    @Test
+    fun `should migrate legacy lifecycles`() {
+        val legacy = File(directory, "lifecycle.txt")
+        legacy.writeText("""{"fg":1}##{"crash_details":{"stack_trace":"a##b"}}##""")
+
+        log.migrate(legacy)
+
+        legacy.exists().shouldBeFalse()
+        readAll().shouldEqual(listOf("""{"fg":1}""", """{"crash_details":{"stack_trace":"a##b"}}"""))
+    }
+
+    private fun readAll(): List<String> {
+        val records = ArrayList<String>()
+        log.read().use { reader ->
+            var record = reader.next()
+            while (record != null) {
+                records.add(record.toString())
+                record = reader.next()
+            }
+        }
+        return records
+    }
+}
@@ -0,0 +1,157 @@
+package com.rakuten.tech.mobile.crash.processors
+
+import com.rakuten.tech.mobile.crash.RobolectricUnitSpec
+import org.amshove.kluent.shouldBeFalse
+import org.amshove.kluent.shouldBeNull
+import org.amshove.kluent.shouldBeTrue
+import org.amshove.kluent.shouldEqual
+import org.json.JSONObject
+import org.junit.Test
+import java.io.RandomAccessFile
+
+class LifecycleStoreSpec : RobolectricUnitSpec() {
+
+    private val directory = createTempDir()
+    private val store = LifecycleStore(directory)
+
+    @Test
+    fun `should not claim empty store`() {
+        store.claim().shouldBeNull()
+    }
+
+    @Test
+    fun `should claim appended lifecycles`() {
+        store.append(JSONObject("""{"fg": 1}"""), false)
+        store.append(JSONObject("""{"fg": 2}"""), false)
+
+        readAll(store.claim()!!).shouldEqual(listOf("""{"fg":1}""", """{"fg":2}"""))
+        store.isEmpty.shouldBeTrue()
+    }
+
+    @Test
+    fun `should keep lifecycles appended while claimed lifecycles are sent`() {
+        store.append(JSONObject("""{"fg": 1}"""), false)
+        val claim = store.claim()!!
+        store.append(JSONObject("""{"fg": 2}"""), false)
+
+        readAll(claim).shouldEqual(listOf("""{"fg":1}"""))
+        store.acknowledge(claim)
+
+        store.isEmpty.shouldBeFalse()
+        readAll(store.claim()!!).shouldEqual(listOf("""{"fg":2}"""))
+    }
+
+    @Test
+    fun `should not claim lifecycles twice`() {
+        store.append(JSONObject("""{"fg": 1}"""), false)
+        store.claim()
+
+        store.claim().shouldBeNull()
+    }
+
+    @Test
+    fun `should claim released lifecycles again`() {
+        store.append(JSONObject("""{"fg": 1}"""), false)
+        store.release(store.claim()!!)
+        store.append(JSONObject("""{"fg": 2}"""), false)
+
+        readAll(store.claim()!!).shouldEqual(listOf("""{"fg":1}""", """{"fg":2}"""))
+    }
+
+    @Test
+    fun `should delete acknowledged lifecycles`() {
+        store.append(JSONObject("""{"fg": 1}"""), false)
+        store.acknowledge(store.claim()!!)
+
+        store.isEmpty.shouldBeTrue()
+        LifecycleStore(directory).claim().shouldBeNull()
+    }
+
+    @Test
+    fun `should keep lifecycles when reopened`() {
+        store.append(JSONObject("""{"fg": 1}"""), false)
+        store.claim()
+        store.append(JSONObject("""{"fg": 2}"""), false)
+
+        readAll(LifecycleStore(directory).claim()!!).shouldEqual(listOf("""{"fg":1}""", """{"fg":2}"""))
+    }
+
+    @Test
+    fun `should count lifecycles waiting to be sent`() {
+        store.append(JSONObject("""{"fg": 1, "bg": 2}"""), false)
+        store.append(JSONObject("""{"fg": 3, "bg": 4}"""), false)
+
+        store.recordCount.shouldEqual(2)
+        store.oldestMillis.shouldEqual(2L)
+    }
+
+    @Test
+    fun `should not count claimed lifecycles until released`() {
+        store.append(JSONObject("""{"fg": 1, "bg": 2}"""), false)
+        val claim = store.claim()!!
+        store.append(JSONObject("""{"fg": 3, "bg": 4}"""), false)
+
+        store.recordCount.shouldEqual(1)
+        store.oldestMillis.shouldEqual(4L)
+
+        store.release(claim)
+
+        store.recordCount.shouldEqual(2)
+        store.oldestMillis.shouldEqual(2L)
+    }
+
+    @Test
+    fun `should count lifecycles when reopened`() {
+        store.append(JSONObject("""{"fg": 1, "bg": 2}"""), false)
+        store.claim()
+        store.append(JSONObject("""{"fg": 3, "bg": 4}"""), false)
+
+        val reopened = LifecycleStore(directory)
+        reopened.recordCount.shouldEqual(2)
+        reopened.oldestMillis.shouldEqual(2L)
+    }
+
+    @Test
+    fun `should keep crash pending until its segment is acknowledged`() {
+        store.append(JSONObject("""{"fg": 1}"""), false)
+        val sessions = store.claim()!!
+        store.append(JSONObject("""{"fg": 2, "crash_details": {}}"""), true)
+
+        store.acknowledge(sessions)
+
+        store.hasCrash().shouldBeTrue()
+        LifecycleStore(directory).hasCrash().shouldBeTrue()
+        val crash = store.claim()!!
+        store.hasCrash().shouldBeFalse()
+        store.release(crash)
+        store.hasCrash().shouldBeTrue()
+        store.acknowledge(store.claim()!!)
+        store.hasCrash().shouldBeFalse()
+    }
+
+    @Test
+    fun `should claim lifecycles appended after record cut short`() {
+        store.append(JSONObject("""{"fg": 1}"""), false)
+        store.append(JSONObject("""{"fg": 2}"""), false)
+        val segment = directory.listFiles { _, name -> name.endsWith(".log") }!!.single()
+        RandomAccessFile(segment, "rw").use { it.setLength(it.length() - 2) }
+
+        val reopened = LifecycleStore(directory)
+        reopened.append(JSONObject("""{"fg": 3, "crash_details": {}}"""), true)
+
+        reopened.recordCount.shouldEqual(2)
+        readAll(reopened.claim()!!).shouldEqual(listOf("""{"fg":1}""", """{"fg":3,"crash_details":{}}"""))
+    }
+
+    private fun readAll(claim: LifecycleStore.Claim): List<String> {
+        val records = ArrayList<String>()
+        claim.lifecycles.open().use { reader ->
+            var record = reader.next()
+            while (record != null) {
+                records.add(record.toString())
+                record = reader.next()
+            }
+        }
+        return records
+    }
+}
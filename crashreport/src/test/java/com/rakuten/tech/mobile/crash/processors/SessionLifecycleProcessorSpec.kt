@@ -0,0 +1,190 @@
+package com.rakuten.tech.mobile.crash.processors
+
+import android.content.Context
+import android.net.ConnectivityManager
+import android.os.SystemClock
+import android.preference.PreferenceManager
+import com.rakuten.tech.mobile.crash.CrashReport
+import com.rakuten.tech.mobile.crash.CrashReportConstants
+import com.rakuten.tech.mobile.crash.CrashReportHttpClient
+import com.rakuten.tech.mobile.crash.FlushPolicy
+import com.rakuten.tech.mobile.crash.LoopbackTransport
+import com.rakuten.tech.mobile.crash.RobolectricUnitSpec
+import com.rakuten.tech.mobile.crash.Transport
+import com.rakuten.tech.mobile.crash.UploadPolicy
+import com.rakuten.tech.mobile.crash.tasks.BackgroundTask
+import com.rakuten.tech.mobile.crash.tasks.ForegroundTask
+import com.rakuten.tech.mobile.crash.tasks.RecoverCrashTask
+import org.amshove.kluent.shouldBeEmpty
+import org.amshove.kluent.shouldBeFalse
+import org.amshove.kluent.shouldBeLessThan
+import org.amshove.kluent.shouldBeNull
+import org.amshove.kluent.shouldBeTrue
+import org.amshove.kluent.shouldEqual
+import org.amshove.kluent.shouldNotBeNull
+import org.json.JSONObject
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.robolectric.RuntimeEnvironment
+import org.robolectric.Shadows.shadowOf
+import org.robolectric.util.ReflectionHelpers
+import java.io.File
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+class SessionLifecycleProcessorSpec : RobolectricUnitSpec() {
+
+    private val context = RuntimeEnvironment.application
+    private val prefs = PreferenceManager.getDefaultSharedPreferences(context)
+    private val processor = SessionLifecycleProcessor.getInstance()
+    private val stall = CountDownLatch(1)
+
+    @Before
+    fun setUp() {
+        prefs.edit().clear().commit()
+        processor.reset()
+        ReflectionHelpers.setField(CrashReport.getInstance(), "reportSessionsUrl", "https://sessions.example.com")
+    }
+
+    @After
+    fun tearDown() {
+        stall.countDown()
+        CrashReportHttpClient.getInstance().setTransport(null)
+        processor.setFlushScheduler(null)
+        processor.setFlushPolicy(FlushPolicy.DEFAULT)
+        processor.setUploadPolicy(UploadPolicy.DEFAULT)
+        ReflectionHelpers.setField(CrashReport.getInstance(), "reportSessionsUrl", null)
+        processor.reset()
+    }
+
+    @Test
+    fun `should send crash within budget`() {
+        val transport = LoopbackTransport()
+        CrashReportHttpClient.getInstance().setTransport(transport)
+
+        processor.reportCrash(context, IllegalStateException("crash"))
+
+        transport.bodies.size.shouldEqual(1)
+        val lifecycles = JSONObject(String(transport.bodies[0], Charsets.UTF_8))
+                .getJSONArray(CrashReportConstants.LIFECYCLES)
+        lifecycles.length().shouldEqual(1)
+        lifecycles.getJSONObject(0).has(CrashReportConstants.CRASH_DETAILS).shouldBeTrue()
+        hasPendingCrash().shouldBeFalse()
+    }
+
+    @Test
+    fun `should commit flush flags before sending crash`() {
+        var flushFlagged = false
+        var crashFlagged = false
+        CrashReportHttpClient.getInstance().setTransport(LoopbackTransport { _, _ ->
+            flushFlagged = prefs.getBoolean(CrashReportConstants.FLUSH_LIFECYCLES, false)
+            crashFlagged = hasPendingCrash()
+            Transport.Response(200, "", emptyMap())
+        })
+
+        processor.reportCrash(context, IllegalStateException("crash"))
+
+        flushFlagged.shouldBeTrue()
+        crashFlagged.shouldBeTrue()
+    }
+
+    @Test
+    fun `should not send crash without enough time left`() {
+        val transport = LoopbackTransport()
+        CrashReportHttpClient.getInstance().setTransport(transport)
+        val elapsed = CrashReportConstants.CRASH_REPORT_BUDGET_MILLIS - CrashReportConstants.MIN_CRASH_UPLOAD_MILLIS + 1
+
+        processor.reportCrash(context, IllegalStateException("crash"), SystemClock.elapsedRealtime() - elapsed)
+
+        transport.bodies.shouldBeEmpty()
+        hasPendingCrash().shouldBeTrue()
+        nextLaunchClaim().shouldNotBeNull()
+    }
+
+    @Test
+    fun `should return within budget and keep crash claimed when transport stalls`() {
+        CrashReportHttpClient.getInstance().setTransport(LoopbackTransport { _, _ ->
+            stall.await(10, TimeUnit.SECONDS)
+            Transport.Response(200, "", emptyMap())
+        })
+        val start = System.currentTimeMillis()
+
+        processor.reportCrash(context, IllegalStateException("crash"))
+
+        (System.currentTimeMillis() - start).shouldBeLessThan(CrashReportConstants.CRASH_REPORT_BUDGET_MILLIS + 500)
+        // Claimed by the dying process, so nothing is sent again before the next launch.
+        processor.claimLifecycles(context).shouldBeNull()
+        hasPendingCrash().shouldBeTrue()
+        nextLaunchClaim().shouldNotBeNull()
+    }
+
+    @Test
+    fun `should release crash when request fails`() {
+        CrashReportHttpClient.getInstance().setTransport(Transport { throw IllegalStateException("failure") })
+
+        processor.reportCrash(context, IllegalStateException("crash"))
+
+        hasPendingCrash().shouldBeTrue()
+        prefs.getBoolean(CrashReportConstants.FLUSH_LIFECYCLES, false).shouldBeTrue()
+        processor.claimLifecycles(context).shouldNotBeNull()
+    }
+
+    @Test
+    fun `should schedule flush when deferral of crash-free sessions expires`() {
+        val delays = ArrayList<Long>()
+        processor.setFlushScheduler(SessionLifecycleProcessor.FlushScheduler { delays.add(it) })
+        processor.setFlushPolicy(FlushPolicy(1, Long.MAX_VALUE, Long.MAX_VALUE))
+        processor.setUploadPolicy(UploadPolicy(60000, 2000, 15))
+        shadowOf(context.getSystemService(Context.CONNECTIVITY_SERVICE) as ConnectivityManager)
+                .setActiveNetworkInfo(null)
+
+        cacheSession(1000)
+        cacheSession(100000)
+
+        // Deferred twice, with a single flush scheduled for when the first deferral expires.
+        delays.size.shouldEqual(1)
+        (delays[0] in 1..60000).shouldBeTrue()
+        processor.claimLifecycles(context).shouldBeNull()
+    }
+
+    @Test
+    fun `should recover crash of previous launch once on task`() {
+        CrashSlot.open(File(context.cacheDir, CrashReportConstants.CRASH_SLOT_FILE))!!
+                .write(1, 2, OutOfMemoryError("crash"))
+
+        processor.reserveCrashSlot(context).shouldBeTrue()
+        hasPendingCrash().shouldBeFalse()
+
+        processor.processTask(context, RecoverCrashTask())
+        processor.processTask(context, RecoverCrashTask())
+
+        hasPendingCrash().shouldBeTrue()
+        processor.claimLifecycles(context)!!.recordCount.shouldEqual(1)
+        processor.reserveCrashSlot(context).shouldBeFalse()
+    }
+
+    /**
+     * Caches a crash-free session, recorded once the app returns to foreground after the session gap.
+     */
+    private fun cacheSession(start: Long) {
+        processor.processTask(context, ForegroundTask(start))
+        processor.processTask(context, BackgroundTask(start + 1000))
+        processor.processTask(context, ForegroundTask(start + 1000 + CrashReportConstants.SESSION_GAP_MILLIS + 1))
+    }
+
+    /**
+     * Checks the cached lifecycles for a crash as the next process would, whether they are being sent or not.
+     */
+    private fun hasPendingCrash(): Boolean {
+        return LifecycleStore(File(context.cacheDir, CrashReportConstants.LIFECYCLE_DIRECTORY)).hasCrash()
+    }
+
+    /**
+     * Claims the cached lifecycles as the next process would, opening the lifecycle store again.
+     */
+    private fun nextLaunchClaim(): LifecycleStore.Claim? {
+        processor.reset()
+        return processor.claimLifecycles(context)
+    }
+}
@@ -0,0 +1,68 @@
+package com.rakuten.tech.mobile.crash.tasks
+
+import org.amshove.kluent.shouldBe
+import org.amshove.kluent.shouldBeNull
+import org.amshove.kluent.shouldEqual
+import org.amshove.kluent.shouldNotBe
+import org.junit.Test
+import java.util.concurrent.Callable
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+class TaskPoolSpec {
+
+    private val pool = TaskPool<ForegroundTask>(2)
+
+    @Test
+    fun `should return null when empty`() {
+        pool.acquire().shouldBeNull()
+    }
+
+    @Test
+    fun `should return released instance`() {
+        val task = ForegroundTask(0)
+        pool.release(task)
+
+        pool.acquire().shouldBe(task)
+        pool.acquire().shouldBeNull()
+    }
+
+    @Test
+    fun `should drop instances released to a full pool`() {
+        (0..2).forEach { pool.release(ForegroundTask(it.toLong())) }
+
+        pool.acquire().shouldNotBe(null)
+        pool.acquire().shouldNotBe(null)
+        pool.acquire().shouldBeNull()
+    }
+
+    @Test
+    fun `should not hand out an instance twice to concurrent threads`() {
+        val shared = TaskPool<ForegroundTask>(16)
+        val tasks = (0 until 16).map { ForegroundTask(it.toLong()) }
+        tasks.forEach { shared.release(it) }
+        val start = CountDownLatch(1)
+        val executor = Executors.newFixedThreadPool(4)
+
+        val acquired = (0 until 4).map {
+            executor.submit(Callable {
+                start.await()
+                generateSequence { shared.acquire() }.toList()
+            })
+        }
+        start.countDown()
+        val all = acquired.flatMap { it.get(10, TimeUnit.SECONDS) }
+        executor.shutdown()
+
+        all.size.shouldEqual(16)
+        all.toSet().size.shouldEqual(16)
+    }
+
+    @Test
+    fun `should set timestamp of recycled task instances`() {
+        ForegroundTask.obtain(1).recycle()
+
+        ForegroundTask.obtain(2).timestamp.shouldEqual(2L)
+    }
+}